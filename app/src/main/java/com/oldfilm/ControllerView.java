@@ -2,12 +2,10 @@ package com.oldfilm;
 
 import android.app.Activity;
 import android.content.Context;
-import android.os.Handler;
-import android.os.Message;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.text.TextUtils;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
@@ -18,19 +16,35 @@ import android.widget.ProgressBar;
 import android.widget.SeekBar;
 import android.widget.TextView;
 
-import com.oldfilm.gles.LogUtils;
+import com.oldfilm.gles.Tracer;
+import com.oldfilm.render.PlaybackClock;
 import com.oldfilm.render.VideoRenderer;
 
-import java.util.Timer;
-import java.util.TimerTask;
-
 /**
  * ControllerView class.
+ * <p>
+ * The HUD is refreshed from a Choreographer frame callback that is only posted while the HUD
+ * is visible and the view attached.  Position and duration come from the renderer's
+ * {@link PlaybackClock}, which is cheap to read every frame, and the time texts are rewritten
+ * from preallocated char buffers only when the displayed second changes, so a steady-state
+ * refresh allocates nothing.
  */
 public class ControllerView extends FrameLayout implements SeekBar.OnSeekBarChangeListener {
 
+    private static final int TRACE_PROGRESS = Tracer.register("progressPercent");
+
+    private static final int DISPLAY_TIME_MS = 3000;
+
     private VideoRenderer mController;
-    private Timer mTimer;
+    private PlaybackClock mClock;
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            onHudFrame(frameTimeNanos);
+        }
+    };
+    private boolean mIsFrameCallbackPosted;
+    private long mLastFrameTimeNs;
 
     private View mRootView;
 
@@ -46,7 +60,13 @@ public class ControllerView extends FrameLayout implements SeekBar.OnSeekBarChan
 
     private ViewGroup mParametersViewGroup;
 
-    private int mDisplayTime = 3000;
+    private int mDisplayTime = DISPLAY_TIME_MS;
+
+    private final char[] mPositionText = new char[TimeUtils.HOUR_MINUTE_SECOND_LENGTH];
+    private final char[] mDurationText = new char[TimeUtils.HOUR_MINUTE_SECOND_LENGTH];
+    private int mShownPositionSeconds = -1;
+    private int mShownDurationSeconds = -1;
+    private int mShownProgress = -1;
 
     public ControllerView(@NonNull Context context) {
         super(context);
@@ -65,20 +85,37 @@ public class ControllerView extends FrameLayout implements SeekBar.OnSeekBarChan
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        mDisplayTime = 3000;
+        mDisplayTime = DISPLAY_TIME_MS;
         if (mRootView.getVisibility() == INVISIBLE) {
             mRootView.setVisibility(VISIBLE);
         }
+        startHudUpdates();
 
         return false;
     }
 
     public void setRenderer(VideoRenderer renderer) {
         mController = renderer;
+        mClock = renderer != null ? renderer.getClock() : null;
+        if (renderer != null) {
+            mTitleTextView.setText(renderer.getUrl());
+        }
     }
 
     public void destroy() {
-        mTimer.cancel();
+        stopHudUpdates();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        startHudUpdates();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        stopHudUpdates();
+        super.onDetachedFromWindow();
     }
 
     private void initView() {
@@ -145,49 +182,73 @@ public class ControllerView extends FrameLayout implements SeekBar.OnSeekBarChan
         mScratchSeekBar.setOnSeekBarChangeListener(this);
         mVignettingSeekBar = mRootView.findViewById(R.id.seek_bar_vignetting);
         mVignettingSeekBar.setOnSeekBarChangeListener(this);
+    }
 
-        mTimer = new Timer();
-        mTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                Message msg;
-                msg = mHandler.obtainMessage();
-                msg.what = 0;
-                mHandler.sendMessage(msg);
-            }
-        }, 0, 50);
+    private void startHudUpdates() {
+        if (mIsFrameCallbackPosted || mRootView.getVisibility() != VISIBLE) {
+            return;
+        }
+        mIsFrameCallbackPosted = true;
+        mLastFrameTimeNs = 0;
+        Choreographer.getInstance().postFrameCallback(mFrameCallback);
     }
 
-    private Handler mHandler = new Handler() {
-        @Override
-        public void handleMessage(Message msg) {
-            super.handleMessage(msg);
-            if (null != mController) {
-                if (TextUtils.isEmpty(mTitleTextView.getText())) {
-                    mTitleTextView.setText(mController.getUrl());
-                }
+    private void stopHudUpdates() {
+        if (mIsFrameCallbackPosted) {
+            mIsFrameCallbackPosted = false;
+            Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+        }
+    }
 
-                int currentPosition = (int)((float)mController.getCurrentPosition() / 1000.0f);
-                int duration = (int)((float)mController.getDuration() / 1000.0f);
-                if (currentPosition >= 0 && duration >= 0l) {
-                    int progress = (int) ((float) currentPosition / (float) duration * 100);
-                    mProgressBar.setProgress(progress);
-                    mCurrentPositionTextView.setText(TimeUtils.formatNumberToHourMinuteSecond((double)currentPosition));
-                    mDurationTextView.setText(TimeUtils.formatNumberToHourMinuteSecond((double)duration));
-                    LogUtils.v("actual progress is " + progress + "%");
-                }
-            }
+    private void onHudFrame(long frameTimeNanos) {
+        if (mLastFrameTimeNs != 0) {
+            mDisplayTime -= (int) ((frameTimeNanos - mLastFrameTimeNs) / 1000000L);
+        }
+        mLastFrameTimeNs = frameTimeNanos;
+        if (mDisplayTime <= 0) {
+            mRootView.setVisibility(INVISIBLE);
+            mIsFrameCallbackPosted = false;
+            return;
+        }
 
-            mDisplayTime -= 50;
-            if (mDisplayTime <= 0 && mRootView.getVisibility() == VISIBLE) {
-                mRootView.setVisibility(INVISIBLE);
-            }
+        final PlaybackClock clock = mClock;
+        if (null != clock) {
+            updateProgress(clock.getPositionMs(), clock.getDurationMs());
         }
-    };
+
+        Choreographer.getInstance().postFrameCallback(mFrameCallback);
+    }
+
+    private void updateProgress(int positionMs, int durationMs) {
+        if (positionMs < 0 || durationMs <= 0) {
+            return;
+        }
+
+        final int progress = (int) ((long) Math.min(positionMs, durationMs) * 100 / durationMs);
+        if (progress != mShownProgress) {
+            mShownProgress = progress;
+            mProgressBar.setProgress(progress);
+            if (Tracer.ENABLED) Tracer.counter(TRACE_PROGRESS, progress);
+        }
+
+        final int positionSeconds = positionMs / 1000;
+        if (positionSeconds != mShownPositionSeconds) {
+            mShownPositionSeconds = positionSeconds;
+            final int length = TimeUtils.formatHourMinuteSecond(positionSeconds, mPositionText);
+            mCurrentPositionTextView.setText(mPositionText, 0, length);
+        }
+
+        final int durationSeconds = durationMs / 1000;
+        if (durationSeconds != mShownDurationSeconds) {
+            mShownDurationSeconds = durationSeconds;
+            final int length = TimeUtils.formatHourMinuteSecond(durationSeconds, mDurationText);
+            mDurationTextView.setText(mDurationText, 0, length);
+        }
+    }
 
     @Override
     public void onProgressChanged(SeekBar seekBar, int i, boolean b) {
-        mDisplayTime = 3000;
+        mDisplayTime = DISPLAY_TIME_MS;
 
         if (mController == null) return;
 
@@ -204,11 +265,11 @@ public class ControllerView extends FrameLayout implements SeekBar.OnSeekBarChan
 
     @Override
     public void onStartTrackingTouch(SeekBar seekBar) {
-        mDisplayTime = 3000;
+        mDisplayTime = DISPLAY_TIME_MS;
     }
 
     @Override
     public void onStopTrackingTouch(SeekBar seekBar) {
-        mDisplayTime = 3000;
+        mDisplayTime = DISPLAY_TIME_MS;
     }
 }
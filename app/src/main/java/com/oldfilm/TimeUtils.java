@@ -1,23 +1,34 @@
 package com.oldfilm;
 
-import java.math.BigDecimal;
-
 /**
  * TimeUtils class.
  */
 public class TimeUtils {
 
-    public static String formatNumberToHourMinuteSecond(Double dateDou){
-        String ft = "00:00:00";//没匹配上时:1.等于0时; 2.大于等于86400时.
-        BigDecimal d = new BigDecimal(dateDou).setScale(0, BigDecimal.ROUND_HALF_UP);//四舍五入
-        int date = Integer.valueOf(d.toString());
-        if(date > 0 && date < 60){
-            ft = date < 10 ? "00:00:0" + date : "00:00:" + date;
-        }else if(date >= 60 && date < 3600){
-            ft = "00:" + (date/60>=10?date/60:"0"+date/60) + ":" + (date%60>=10?date%60:"0"+date%60);
-        }else if(date >= 3600 && date < 86400 ){
-            ft = (date/3600>=10?date/3600:"0"+date/3600) + ":" + (date%3600/60>=10?date%3600/60:"0"+date%3600/60) + ":" + (date%60>=10?date%60:"0"+date%60);
-        }
-        return ft;
+    /** Length of the text written by {@link #formatHourMinuteSecond(int, char[])}. */
+    public static final int HOUR_MINUTE_SECOND_LENGTH = 8;
+
+    private static final int MAX_SECONDS = 99 * 3600 + 59 * 60 + 59;
+
+    /**
+     * Writes a number of seconds as "hh:mm:ss" into the start of a buffer, without allocating,
+     * so the result can be handed to {@link android.widget.TextView#setText(char[], int, int)}.
+     * Negative values are written as 00:00:00, values past 99:59:59 as 99:59:59.
+     *
+     * @return the number of chars written, {@link #HOUR_MINUTE_SECOND_LENGTH}
+     */
+    public static int formatHourMinuteSecond(int seconds, char[] buffer) {
+        final int clamped = Math.max(0, Math.min(MAX_SECONDS, seconds));
+        writeTwoDigits(clamped / 3600, buffer, 0);
+        buffer[2] = ':';
+        writeTwoDigits(clamped % 3600 / 60, buffer, 3);
+        buffer[5] = ':';
+        writeTwoDigits(clamped % 60, buffer, 6);
+        return HOUR_MINUTE_SECOND_LENGTH;
+    }
+
+    private static void writeTwoDigits(int value, char[] buffer, int offset) {
+        buffer[offset] = (char) ('0' + value / 10);
+        buffer[offset + 1] = (char) ('0' + value % 10);
     }
 }
@@ -45,5 +45,8 @@ public class VideoActivity extends Activity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        // The renderer outlives its surface (warm suspend); release it with the activity.
+        mControllerView.destroy();
+        mRenderer.destroy();
     }
 }
@@ -0,0 +1,188 @@
+package com.oldfilm.gles;
+
+import android.annotation.TargetApi;
+import android.opengl.GLES30;
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * AsyncPixelReader class.
+ * <p>
+ * Reads the current framebuffer into a ring of pixel-pack buffers and hands the pixels out a
+ * frame or two later, once the fence placed after each read has signaled.  Neither the read
+ * nor the collection ever waits on the GPU; if every buffer is still in flight the oldest
+ * read is dropped.
+ * <p>
+ * Requires a GLES3 context and API 24 (glReadPixels into a bound buffer object).  Use
+ * {@link #isSupported(EglCore)} and fall back to a plain glReadPixels otherwise.  All calls
+ * must be made on the thread that owns the context.
+ */
+@TargetApi(Build.VERSION_CODES.N)
+public class AsyncPixelReader {
+
+    public static final int DEFAULT_BUFFER_COUNT = 3;
+
+    public interface Callback {
+        /**
+         * Called from {@link #collect(Callback)} for every completed read, oldest first.  The
+         * buffer is a mapping of GPU memory and is only valid for the duration of the call.
+         */
+        void onPixelsRead(ByteBuffer pixels, int width, int height, long timestampNs);
+    }
+
+    private final int[] mBuffers;
+    private final long[] mFences;
+    private final long[] mTimestamps;
+    private final int[] mWidths;
+    private final int[] mHeights;
+
+    private int mCapacity; // bytes per buffer
+    private int mWriteIndex;
+    private int mReadIndex;
+    private int mPending;
+
+    private long mDroppedCount;
+
+    public static boolean isSupported(EglCore eglCore) {
+        return eglCore.getGlVersion() >= 3
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.N;
+    }
+
+    public AsyncPixelReader(int bufferCount) {
+        if (bufferCount < 2) {
+            throw new IllegalArgumentException("need at least two buffers, got " + bufferCount);
+        }
+        mBuffers = new int[bufferCount];
+        mFences = new long[bufferCount];
+        mTimestamps = new long[bufferCount];
+        mWidths = new int[bufferCount];
+        mHeights = new int[bufferCount];
+    }
+
+    /**
+     * Queues a read of the bound framebuffer.  Does not block.
+     */
+    public void readPixels(int width, int height, long timestampNs) {
+        final int size = width * height * 4;
+        if (size > mCapacity) {
+            allocate(size);
+        }
+
+        if (mPending == mBuffers.length) {
+            // The GPU (or the consumers) fell behind, drop the oldest read instead of stalling.
+            GLES30.glDeleteSync(mFences[mReadIndex]);
+            mFences[mReadIndex] = 0;
+            mReadIndex = (mReadIndex + 1) % mBuffers.length;
+            mPending--;
+            mDroppedCount++;
+        }
+
+        final int index = mWriteIndex;
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mBuffers[index]);
+        GLES30.glReadPixels(0, 0, width, height, GLES30.GL_RGBA, GLES30.GL_UNSIGNED_BYTE, 0);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        GlUtil.checkGlError("glReadPixels to PBO");
+
+        mFences[index] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        mTimestamps[index] = timestampNs;
+        mWidths[index] = width;
+        mHeights[index] = height;
+
+        mWriteIndex = (index + 1) % mBuffers.length;
+        mPending++;
+    }
+
+    /**
+     * Delivers every read whose fence has signaled.  Does not block.
+     *
+     * @return the number of frames delivered.
+     */
+    public int collect(Callback callback) {
+        int delivered = 0;
+        while (mPending > 0) {
+            final int index = mReadIndex;
+            final int status = GLES30.glClientWaitSync(mFences[index], 0, 0);
+            if (status == GLES30.GL_TIMEOUT_EXPIRED) {
+                break;
+            }
+
+            GLES30.glDeleteSync(mFences[index]);
+            mFences[index] = 0;
+            mReadIndex = (index + 1) % mBuffers.length;
+            mPending--;
+
+            if (status == GLES30.GL_WAIT_FAILED) {
+                LogUtils.e("AsyncPixelReader.collect() - glClientWaitSync failed");
+                mDroppedCount++;
+                continue;
+            }
+
+            final int size = mWidths[index] * mHeights[index] * 4;
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, mBuffers[index]);
+            ByteBuffer pixels = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER,
+                    0, size, GLES30.GL_MAP_READ_BIT);
+            if (pixels != null) {
+                pixels.order(ByteOrder.nativeOrder());
+                callback.onPixelsRead(pixels, mWidths[index], mHeights[index], mTimestamps[index]);
+                GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+                delivered++;
+            } else {
+                mDroppedCount++;
+            }
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        }
+        return delivered;
+    }
+
+    public boolean hasPending() {
+        return mPending > 0;
+    }
+
+    /**
+     * Returns the number of reads that were discarded rather than delivered.
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * Deletes the buffers and any outstanding fences.  The context must be current.
+     */
+    public void release() {
+        discardPending();
+        if (mBuffers[0] != 0) {
+            GLES30.glDeleteBuffers(mBuffers.length, mBuffers, 0);
+            for (int i = 0; i < mBuffers.length; i++) {
+                mBuffers[i] = 0;
+            }
+        }
+        mCapacity = 0;
+    }
+
+    private void allocate(int size) {
+        discardPending();
+        if (mBuffers[0] == 0) {
+            GLES30.glGenBuffers(mBuffers.length, mBuffers, 0);
+            GlUtil.checkGlError("glGenBuffers");
+        }
+        for (int buffer : mBuffers) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, buffer);
+            GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, size, null, GLES30.GL_STREAM_READ);
+        }
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        GlUtil.checkGlError("glBufferData");
+        mCapacity = size;
+    }
+
+    private void discardPending() {
+        while (mPending > 0) {
+            GLES30.glDeleteSync(mFences[mReadIndex]);
+            mFences[mReadIndex] = 0;
+            mReadIndex = (mReadIndex + 1) % mBuffers.length;
+            mPending--;
+        }
+        mReadIndex = mWriteIndex = 0;
+    }
+}
@@ -0,0 +1,62 @@
+package com.oldfilm.gles;
+
+/**
+ * ColorLutBuilder class.
+ * <p>
+ * Bakes steps 1-3 of the old-film shader (grayscale, sepia overlay, sepia lerp) into a strip
+ * LUT.  Those steps see the input colour only through its gray level, so a 1D table indexed
+ * by gray is enough: a {@link #SIZE}x1 GL_RGB texture, where entry i holds the colour for
+ * gray = i / (SIZE - 1).  The shader samples it with linear filtering at
+ * {@code gray * (SIZE - 1) / SIZE + 0.5 / SIZE}; the math is linear on each side of the
+ * overlay's 0.5 threshold, so interpolation between entries is exact away from it.
+ * <p>
+ * Pure Java, no GL calls; build on any thread and upload on a GL thread.
+ */
+public final class ColorLutBuilder {
+
+    public static final int SIZE = 256;
+    public static final int CHANNELS = 3;
+
+    /** The shader's sepia colour, (112, 66, 20) / 255. */
+    private static final float[] SEPIA = { 112.0f / 255.0f, 66.0f / 255.0f, 20.0f / 255.0f };
+
+    private ColorLutBuilder() {
+    }
+
+    /**
+     * Returns a new SIZE x 1 RGB LUT for the given sepia value.
+     */
+    public static byte[] build(float sepiaValue) {
+        byte[] lut = new byte[SIZE * CHANNELS];
+        build(sepiaValue, lut);
+        return lut;
+    }
+
+    /**
+     * Fills {@code lut}, which must hold at least SIZE * CHANNELS bytes.
+     */
+    public static void build(float sepiaValue, byte[] lut) {
+        for (int i = 0; i < SIZE; i++) {
+            final float gray = (float) i / (SIZE - 1);
+            for (int c = 0; c < CHANNELS; c++) {
+                lut[i * CHANNELS + c] = encode(apply(gray, SEPIA[c], sepiaValue));
+            }
+        }
+    }
+
+    /**
+     * One channel of steps 2 and 3: overlay the sepia channel on the gray level, then lerp
+     * from gray towards the result by {@code sepiaValue}.
+     */
+    private static float apply(float gray, float sepia, float sepiaValue) {
+        final float overlay = gray <= 0.5f
+                ? 2.0f * sepia * gray
+                : 1.0f - 2.0f * (1.0f - gray) * (1.0f - sepia);
+        return gray + sepiaValue * (overlay - gray);
+    }
+
+    private static byte encode(float value) {
+        int v = Math.round(value * 255.0f);
+        return (byte) Math.max(0, Math.min(255, v));
+    }
+}
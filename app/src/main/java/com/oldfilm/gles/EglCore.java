@@ -345,6 +345,13 @@ public final class EglCore {
         return mGlVersion;
     }
 
+    /**
+     * Returns the EGL context, e.g. to create a context on another thread that shares it.
+     */
+    public EGLContext getEGLContext() {
+        return mEGLContext;
+    }
+
     /**
      * Writes the current display, context, and surface to the log.
      */
@@ -27,7 +27,6 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 /**
  * Common base class for EGL surfaces.
@@ -152,9 +151,19 @@ public class EglSurfaceBase {
     /**
      * Saves the EGL surface to a file.
      * <p>
-     * Expects that this object's EGL surface is current.
+     * Expects that this object's EGL surface is current.  The pixels are read into a buffer
+     * from {@link PixelBufferPool#getDefault()}.
      */
     public void saveFrame(File file) throws IOException {
+        saveFrame(file, PixelBufferPool.getDefault());
+    }
+
+    /**
+     * Saves the EGL surface to a file, reading the pixels into a buffer from {@code pool}.
+     * <p>
+     * Expects that this object's EGL surface is current.
+     */
+    public void saveFrame(File file, PixelBufferPool pool) throws IOException {
         if (!mEglCore.isCurrent(mEGLSurface)) {
             throw new RuntimeException("Expected EGL context/surface is not current");
         }
@@ -164,9 +173,6 @@ public class EglSurfaceBase {
         // constructor that takes an int[] wants little-endian ARGB (blue/red swapped), the
         // Bitmap "copy pixels" method wants the same format GL provides.
         //
-        // Ideally we'd have some way to re-use the ByteBuffer, especially if we're calling
-        // here often.
-        //
         // Making this even more interesting is the upside-down nature of GL, which means
         // our output will look upside down relative to what appears on screen if the
         // typical GL conventions are used.
@@ -175,21 +181,22 @@ public class EglSurfaceBase {
 
         int width = getWidth();
         int height = getHeight();
-        ByteBuffer buf = ByteBuffer.allocateDirect(width * height * 4);
-        buf.order(ByteOrder.LITTLE_ENDIAN);
-        GLES20.glReadPixels(0, 0, width, height,
-                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buf);
-        GlUtil.checkGlError("glReadPixels");
-        buf.rewind();
-
+        PixelBufferPool.Lease lease = pool.acquire(width * height * 4);
         BufferedOutputStream bos = null;
         try {
+            ByteBuffer buf = lease.getBuffer();
+            GLES20.glReadPixels(0, 0, width, height,
+                    GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buf);
+            GlUtil.checkGlError("glReadPixels");
+            buf.rewind();
+
             bos = new BufferedOutputStream(new FileOutputStream(filename));
             Bitmap bmp = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
             bmp.copyPixelsFromBuffer(buf);
             bmp.compress(Bitmap.CompressFormat.PNG, 90, bos);
             bmp.recycle();
         } finally {
+            lease.release();
             if (bos != null) bos.close();
         }
         Log.d(TAG, "Saved " + width + "x" + height + " frame as '" + filename + "'");
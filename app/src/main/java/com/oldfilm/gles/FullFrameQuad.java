@@ -0,0 +1,152 @@
+package com.oldfilm.gles;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * FullFrameQuad class.
+ * <p>
+ * Draws the {@link Drawable2d.Prefab#FULL_RECTANGLE} quad with a given program.  The quad is
+ * uploaded once per context into a vertex buffer shared by every program, so draws don't
+ * make the driver copy client-side vertex arrays.  Attribute locations are resolved once, in
+ * the constructor; on GLES3 the attribute setup is also recorded once in a vertex array
+ * object, which is created on the drawing thread since VAOs are not shared between contexts.
+ * <p>
+ * Besides the regular texture coordinates, a set rotated by 90 degrees is available for the
+ * legacy offscreen pass.
+ */
+public class FullFrameQuad {
+
+    private static final int SIZEOF_FLOAT = 4;
+
+    /**
+     * Texture coordinates of the FULL_RECTANGLE vertices rotated by 90 degrees:
+     * (x, y) -> ((y + 1) / 2, (1 - x) / 2).
+     */
+    private static final float ROTATED_TEX_COORDS[] = {
+        0.0f, 1.0f,     // 0 bottom left
+        0.0f, 0.0f,     // 1 bottom right
+        1.0f, 1.0f,     // 2 top left
+        1.0f, 0.0f      // 3 top right
+    };
+
+    /**
+     * The shared buffer of one thread's context.  Layout: positions, texture coordinates,
+     * rotated texture coordinates.
+     */
+    private static class SharedBuffer {
+        final int mBuffer;
+        final boolean mHasVertexArrays;
+        int mBoundVertexArray;
+
+        SharedBuffer(Drawable2d drawable) {
+            final int floats = drawable.getVertexCount() * (drawable.getCoordsPerVertex() + 4);
+            FloatBuffer data = ByteBuffer.allocateDirect(floats * SIZEOF_FLOAT)
+                    .order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+            data.put(drawable.getVertexArray().duplicate());
+            data.put(drawable.getTexCoordArray().duplicate());
+            data.put(ROTATED_TEX_COORDS);
+            data.position(0);
+
+            int[] values = new int[1];
+            GLES20.glGenBuffers(1, values, 0);
+            mBuffer = values[0];
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBuffer);
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, floats * SIZEOF_FLOAT, data,
+                    GLES20.GL_STATIC_DRAW);
+            GlUtil.checkGlError("glBufferData");
+
+            final String version = GLES20.glGetString(GLES20.GL_VERSION);
+            mHasVertexArrays = version != null && version.startsWith("OpenGL ES 3");
+        }
+    }
+
+    private static final ThreadLocal<SharedBuffer> sSharedBuffer = new ThreadLocal<>();
+
+    private final Drawable2d mDrawable = new Drawable2d(Drawable2d.Prefab.FULL_RECTANGLE);
+    private final int mPositionLocation;
+    private final int mTexCoordLocation;
+    private final boolean mRotated;
+
+    private SharedBuffer mSharedBuffer;
+    private int mVertexArray;
+
+    /**
+     * Resolves the program's attributes.  May be called on any thread with a context that
+     * shares the program.
+     *
+     * @param rotated Whether to use the texture coordinates rotated by 90 degrees.
+     */
+    public FullFrameQuad(int program, String positionName, String texCoordName, boolean rotated) {
+        mPositionLocation = GLES20.glGetAttribLocation(program, positionName);
+        GlUtil.checkLocation(mPositionLocation, positionName);
+        mTexCoordLocation = GLES20.glGetAttribLocation(program, texCoordName);
+        GlUtil.checkLocation(mTexCoordLocation, texCoordName);
+        mRotated = rotated;
+    }
+
+    /**
+     * Draws the quad as a triangle strip.  The program must be current.
+     */
+    public void draw() {
+        if (mSharedBuffer == null) {
+            mSharedBuffer = sSharedBuffer.get();
+            if (mSharedBuffer == null) {
+                mSharedBuffer = new SharedBuffer(mDrawable);
+                sSharedBuffer.set(mSharedBuffer);
+            }
+        }
+
+        final SharedBuffer shared = mSharedBuffer;
+        if (shared.mHasVertexArrays) {
+            if (mVertexArray == 0) {
+                int[] values = new int[1];
+                GLES30.glGenVertexArrays(1, values, 0);
+                mVertexArray = values[0];
+                GLES30.glBindVertexArray(mVertexArray);
+                setupAttributes(shared);
+            } else if (shared.mBoundVertexArray != mVertexArray) {
+                GLES30.glBindVertexArray(mVertexArray);
+            }
+            shared.mBoundVertexArray = mVertexArray;
+        } else {
+            setupAttributes(shared);
+        }
+
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, mDrawable.getVertexCount());
+    }
+
+    /**
+     * Deletes the vertex array object.  Must be called on the thread that drew with it.
+     */
+    public void release() {
+        if (mVertexArray != 0) {
+            int[] values = new int[] { mVertexArray };
+            GLES30.glDeleteVertexArrays(1, values, 0);
+            if (mSharedBuffer.mBoundVertexArray == mVertexArray) {
+                mSharedBuffer.mBoundVertexArray = 0;
+            }
+            mVertexArray = 0;
+        }
+    }
+
+    private void setupAttributes(SharedBuffer shared) {
+        final int vertexCount = mDrawable.getVertexCount();
+        final int positionBytes = vertexCount * mDrawable.getVertexStride();
+        final int texCoordBytes = vertexCount * mDrawable.getTexCoordStride();
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, shared.mBuffer);
+        GLES20.glEnableVertexAttribArray(mPositionLocation);
+        GLES20.glVertexAttribPointer(mPositionLocation, mDrawable.getCoordsPerVertex(),
+                GLES20.GL_FLOAT, false, mDrawable.getVertexStride(), 0);
+        GLES20.glEnableVertexAttribArray(mTexCoordLocation);
+        GLES20.glVertexAttribPointer(mTexCoordLocation, 2, GLES20.GL_FLOAT, false,
+                mDrawable.getTexCoordStride(),
+                mRotated ? positionBytes + texCoordBytes : positionBytes);
+    }
+}
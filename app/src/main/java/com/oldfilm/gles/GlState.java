@@ -0,0 +1,287 @@
+package com.oldfilm.gles;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+import java.util.Arrays;
+
+/**
+ * GlState class.
+ * <p>
+ * Shadows the GL state the drawers change every frame (current program, active texture unit,
+ * texture bindings, blending and uniform values) and drops calls that would set what is
+ * already set.  Uniform values live in the program object, so they are remembered per
+ * program for as long as the program exists; everything else is per context.
+ * <p>
+ * There is one instance per thread, which in this app means one per EGL context.  Code that
+ * changes tracked state behind its back (e.g. {@code SurfaceTexture.updateTexImage()}, which
+ * binds the external texture) must call {@link #invalidateTextures()} or {@link #invalidate()}
+ * afterwards.  Counters may be read from any thread.
+ */
+public final class GlState {
+
+    private static final int MAX_TEXTURE_UNITS = 8;
+
+    // Uniforms at higher locations are passed through without caching.
+    private static final int MAX_UNIFORM_LOCATIONS = 32;
+
+    private static final int UNKNOWN = -1;
+
+    private static final ThreadLocal<GlState> sThreadState = new ThreadLocal<GlState>() {
+        @Override
+        protected GlState initialValue() {
+            return new GlState();
+        }
+    };
+
+    private static class ProgramState {
+        final int mProgram;
+        // Up to 16 floats per location, mat4 being the largest type tracked.
+        final float[] mValues = new float[MAX_UNIFORM_LOCATIONS * 16];
+        final boolean[] mHasValue = new boolean[MAX_UNIFORM_LOCATIONS];
+
+        ProgramState(int program) {
+            mProgram = program;
+        }
+    }
+
+    private int mProgram = UNKNOWN;
+    private ProgramState mProgramState;
+    private ProgramState[] mPrograms = new ProgramState[8];
+    private int mProgramCount;
+
+    private int mActiveUnit = UNKNOWN;
+    private final int[] mTexture2d = new int[MAX_TEXTURE_UNITS];
+    private final int[] mTextureExternal = new int[MAX_TEXTURE_UNITS];
+
+    private int mBlendEnabled = UNKNOWN;
+    private int mBlendSrc = UNKNOWN;
+    private int mBlendDst = UNKNOWN;
+
+    private volatile long mIssuedCount;
+    private volatile long mSuppressedCount;
+
+    private GlState() {
+        invalidate();
+    }
+
+    /**
+     * Returns the calling thread's state tracker.
+     */
+    public static GlState get() {
+        return sThreadState.get();
+    }
+
+    public void useProgram(int program) {
+        if (program == mProgram) {
+            mSuppressedCount++;
+            return;
+        }
+        GLES20.glUseProgram(program);
+        mIssuedCount++;
+        mProgram = program;
+        mProgramState = program != 0 ? findProgramState(program) : null;
+    }
+
+    /**
+     * @param unit GL_TEXTURE0 + n.
+     */
+    public void activeTexture(int unit) {
+        if (unit == mActiveUnit) {
+            mSuppressedCount++;
+            return;
+        }
+        GLES20.glActiveTexture(unit);
+        mIssuedCount++;
+        mActiveUnit = unit;
+    }
+
+    /**
+     * Binds a GL_TEXTURE_2D or GL_TEXTURE_EXTERNAL_OES texture to the active unit.
+     */
+    public void bindTexture(int target, int texture) {
+        final int[] bindings = bindingsFor(target);
+        final int unit = mActiveUnit - GLES20.GL_TEXTURE0;
+        if (bindings == null || unit < 0 || unit >= MAX_TEXTURE_UNITS) {
+            GLES20.glBindTexture(target, texture);
+            mIssuedCount++;
+            return;
+        }
+        if (bindings[unit] == texture) {
+            mSuppressedCount++;
+            return;
+        }
+        GLES20.glBindTexture(target, texture);
+        mIssuedCount++;
+        bindings[unit] = texture;
+    }
+
+    public void setBlendEnabled(boolean enabled) {
+        final int value = enabled ? 1 : 0;
+        if (value == mBlendEnabled) {
+            mSuppressedCount++;
+            return;
+        }
+        if (enabled) {
+            GLES20.glEnable(GLES20.GL_BLEND);
+        } else {
+            GLES20.glDisable(GLES20.GL_BLEND);
+        }
+        mIssuedCount++;
+        mBlendEnabled = value;
+    }
+
+    public void blendFunc(int src, int dst) {
+        if (src == mBlendSrc && dst == mBlendDst) {
+            mSuppressedCount++;
+            return;
+        }
+        GLES20.glBlendFunc(src, dst);
+        mIssuedCount++;
+        mBlendSrc = src;
+        mBlendDst = dst;
+    }
+
+    /**
+     * Sets a float uniform of the current program.
+     */
+    public void uniform1f(int location, float value) {
+        final ProgramState state = mProgramState;
+        if (state == null || location < 0 || location >= MAX_UNIFORM_LOCATIONS) {
+            GLES20.glUniform1f(location, value);
+            mIssuedCount++;
+            return;
+        }
+        final int base = location * 16;
+        if (state.mHasValue[location]
+                && Float.floatToRawIntBits(state.mValues[base]) == Float.floatToRawIntBits(value)) {
+            mSuppressedCount++;
+            return;
+        }
+        GLES20.glUniform1f(location, value);
+        mIssuedCount++;
+        state.mValues[base] = value;
+        state.mHasValue[location] = true;
+    }
+
+    /**
+     * Sets a mat4 uniform of the current program, without transposition.
+     */
+    public void uniformMatrix4fv(int location, float[] matrix, int offset) {
+        final ProgramState state = mProgramState;
+        if (state == null || location < 0 || location >= MAX_UNIFORM_LOCATIONS) {
+            GLES20.glUniformMatrix4fv(location, 1, false, matrix, offset);
+            mIssuedCount++;
+            return;
+        }
+        final int base = location * 16;
+        if (state.mHasValue[location] && equals(state.mValues, base, matrix, offset)) {
+            mSuppressedCount++;
+            return;
+        }
+        GLES20.glUniformMatrix4fv(location, 1, false, matrix, offset);
+        mIssuedCount++;
+        System.arraycopy(matrix, offset, state.mValues, base, 16);
+        state.mHasValue[location] = true;
+    }
+
+    /**
+     * Forgets the texture bindings, e.g. after updateTexImage() or after creating a texture
+     * without going through this class.
+     */
+    public void invalidateTextures() {
+        mActiveUnit = UNKNOWN;
+        Arrays.fill(mTexture2d, UNKNOWN);
+        Arrays.fill(mTextureExternal, UNKNOWN);
+    }
+
+    /**
+     * Forgets all context state.  Remembered uniform values are kept, they belong to the
+     * programs.
+     */
+    public void invalidate() {
+        mProgram = UNKNOWN;
+        mProgramState = null;
+        mBlendEnabled = UNKNOWN;
+        mBlendSrc = UNKNOWN;
+        mBlendDst = UNKNOWN;
+        invalidateTextures();
+    }
+
+    /**
+     * Must be called when a texture is deleted; its name may be handed out again.
+     */
+    public void onTextureDeleted(int texture) {
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+            if (mTexture2d[i] == texture) {
+                mTexture2d[i] = UNKNOWN;
+            }
+            if (mTextureExternal[i] == texture) {
+                mTextureExternal[i] = UNKNOWN;
+            }
+        }
+    }
+
+    /**
+     * Must be called when a program is deleted; its name may be handed out again.
+     */
+    public void onProgramDeleted(int program) {
+        for (int i = 0; i < mProgramCount; i++) {
+            if (mPrograms[i].mProgram == program) {
+                mPrograms[i] = mPrograms[--mProgramCount];
+                mPrograms[mProgramCount] = null;
+                break;
+            }
+        }
+        if (mProgram == program) {
+            mProgram = UNKNOWN;
+            mProgramState = null;
+        }
+    }
+
+    /**
+     * Returns the number of GL calls made through this tracker.
+     */
+    public long getIssuedCount() {
+        return mIssuedCount;
+    }
+
+    /**
+     * Returns the number of GL calls dropped because they would not have changed anything.
+     */
+    public long getSuppressedCount() {
+        return mSuppressedCount;
+    }
+
+    private int[] bindingsFor(int target) {
+        if (target == GLES20.GL_TEXTURE_2D) {
+            return mTexture2d;
+        } else if (target == GLES11Ext.GL_TEXTURE_EXTERNAL_OES) {
+            return mTextureExternal;
+        }
+        return null;
+    }
+
+    private ProgramState findProgramState(int program) {
+        for (int i = 0; i < mProgramCount; i++) {
+            if (mPrograms[i].mProgram == program) {
+                return mPrograms[i];
+            }
+        }
+        if (mProgramCount == mPrograms.length) {
+            mPrograms = Arrays.copyOf(mPrograms, mProgramCount * 2);
+        }
+        ProgramState state = new ProgramState(program);
+        mPrograms[mProgramCount++] = state;
+        return state;
+    }
+
+    private static boolean equals(float[] a, int aOffset, float[] b, int bOffset) {
+        for (int i = 0; i < 16; i++) {
+            if (Float.floatToRawIntBits(a[aOffset + i]) != Float.floatToRawIntBits(b[bOffset + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -52,6 +52,9 @@ public class GlUtil {
      * @return A handle to the program, or 0 on failure.
      */
     public static int createProgram(String vertexSource, String fragmentSource) {
+        if (ProgramCache.getInstance() != null) {
+            return ShaderUtils.createProgram(vertexSource, fragmentSource);
+        }
         int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
         if (vertexShader == 0) {
             return 0;
@@ -127,6 +130,29 @@ public class GlUtil {
         }
     }
 
+    /**
+     * Creates a single-channel GL_LUMINANCE texture from 8-bit texels, rows tightly packed.
+     * Forgets the calling thread's {@link GlState} texture bindings.
+     *
+     * @param wrap Wrap mode for both directions, e.g. GL_CLAMP_TO_EDGE.
+     * @return Handle to texture.
+     */
+    public static int createLuminanceTexture(byte[] texels, int width, int height, int wrap) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(texels.length);
+        buffer.put(texels);
+        buffer.position(0);
+
+        // Rows of odd widths are not 4-byte aligned.
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        int textureHandle = createImageTexture(buffer, width, height, GLES20.GL_LUMINANCE);
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, wrap);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, wrap);
+        checkGlError("createLuminanceTexture");
+        GlState.get().invalidateTextures();
+        return textureHandle;
+    }
+
     /**
      * Creates a texture from raw data.
      *
@@ -0,0 +1,260 @@
+package com.oldfilm.gles;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * GpuTimer class.
+ * <p>
+ * Measures how long render stages take on the GPU with GL_EXT_disjoint_timer_query.  Each
+ * stage is bracketed with {@link #begin(String)} / {@link #end()}; the result of a query is
+ * only picked up by {@link #collect()} once the GPU reports it available, typically a couple
+ * of frames later, so timing never makes the CPU wait.  Every stage has a few queries in
+ * flight; if all of them are still pending, that sample is skipped.
+ * <p>
+ * When the GPU reports a disjoint event (frequency change, context loss, ...) the results in
+ * flight are meaningless and are thrown away.  Without GLES3 or the extension the timer is
+ * inert: begin() and end() do nothing and {@link #getStatus()} says so.
+ * <p>
+ * Queries don't nest, so stages must not overlap.  All calls except the getters must be made
+ * on the thread that owns the context; the getters may be called from any thread.
+ */
+public class GpuTimer {
+
+    public static final int STATUS_UNSUPPORTED = 0;
+    public static final int STATUS_ACTIVE = 1;
+    /**
+     * Active, but the last results in flight were dropped because of a disjoint event; stays
+     * set until a fresh result comes in.
+     */
+    public static final int STATUS_DISJOINT = 2;
+
+    // From GL_EXT_disjoint_timer_query.
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+
+    private static final String EXTENSION = "GL_EXT_disjoint_timer_query";
+
+    private static final int QUERIES_PER_STAGE = 4;
+    private static final int HISTORY_SIZE = 128;
+
+    private static class Stage {
+        final String mName;
+        final int[] mQueries = new int[QUERIES_PER_STAGE];
+        int mFirstPending;
+        int mPendingCount;
+
+        // Guarded by itself.
+        final long[] mHistory = new long[HISTORY_SIZE];
+        int mHistoryCount;
+        int mHistoryNext;
+
+        Stage(String name) {
+            mName = name;
+            GLES30.glGenQueries(QUERIES_PER_STAGE, mQueries, 0);
+        }
+    }
+
+    private final boolean mIsSupported;
+    private final ArrayList<Stage> mStages = new ArrayList<>();
+    private final int[] mValue = new int[1];
+    private Stage mActiveStage;
+
+    private volatile int mStatus;
+    private volatile int mDisjointCount;
+    private volatile int mSkippedCount;
+
+    /**
+     * Checks for the extension; the context must be current.
+     */
+    public GpuTimer(EglCore eglCore) {
+        final String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        mIsSupported = eglCore.getGlVersion() >= 3
+                && extensions != null && extensions.contains(EXTENSION);
+        mStatus = mIsSupported ? STATUS_ACTIVE : STATUS_UNSUPPORTED;
+        LogUtils.i("GpuTimer - " + (mIsSupported ? "enabled" : EXTENSION + " not available"));
+    }
+
+    public boolean isSupported() {
+        return mIsSupported;
+    }
+
+    /**
+     * Starts timing a stage.
+     */
+    public void begin(String name) {
+        if (!mIsSupported || mActiveStage != null) {
+            return;
+        }
+        final Stage stage = getStage(name);
+        if (stage.mPendingCount == QUERIES_PER_STAGE) {
+            mSkippedCount++;
+            return;
+        }
+        final int slot = (stage.mFirstPending + stage.mPendingCount) % QUERIES_PER_STAGE;
+        GLES30.glBeginQuery(GL_TIME_ELAPSED_EXT, stage.mQueries[slot]);
+        mActiveStage = stage;
+    }
+
+    /**
+     * Stops timing the stage started by {@link #begin(String)}.
+     */
+    public void end() {
+        if (mActiveStage == null) {
+            return;
+        }
+        GLES30.glEndQuery(GL_TIME_ELAPSED_EXT);
+        mActiveStage.mPendingCount++;
+        mActiveStage = null;
+    }
+
+    /**
+     * Picks up the results that are available.  Call once per frame, outside of a stage.
+     */
+    public void collect() {
+        if (!mIsSupported) {
+            return;
+        }
+
+        // Reading the flag also clears it.
+        GLES20.glGetIntegerv(GL_GPU_DISJOINT_EXT, mValue, 0);
+        if (mValue[0] != 0) {
+            // The queries are reused as they are, beginning a query discards its old result.
+            for (int i = 0; i < mStages.size(); i++) {
+                final Stage stage = mStages.get(i);
+                stage.mFirstPending = 0;
+                stage.mPendingCount = 0;
+            }
+            mDisjointCount++;
+            mStatus = STATUS_DISJOINT;
+            return;
+        }
+
+        boolean collected = false;
+        for (int i = 0; i < mStages.size(); i++) {
+            final Stage stage = mStages.get(i);
+            while (stage.mPendingCount > 0) {
+                final int query = stage.mQueries[stage.mFirstPending];
+                GLES30.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT_AVAILABLE, mValue, 0);
+                if (mValue[0] == 0) {
+                    break;
+                }
+                GLES30.glGetQueryObjectuiv(query, GLES30.GL_QUERY_RESULT, mValue, 0);
+                record(stage, mValue[0] & 0xffffffffL);
+                collected = true;
+                stage.mFirstPending = (stage.mFirstPending + 1) % QUERIES_PER_STAGE;
+                stage.mPendingCount--;
+            }
+        }
+        if (collected) {
+            mStatus = STATUS_ACTIVE;
+        }
+    }
+
+    /**
+     * Returns one of {@link #STATUS_UNSUPPORTED}, {@link #STATUS_ACTIVE} or
+     * {@link #STATUS_DISJOINT}.
+     */
+    public int getStatus() {
+        return mStatus;
+    }
+
+    /**
+     * Returns the number of times results in flight were dropped because of a disjoint event.
+     */
+    public int getDisjointCount() {
+        return mDisjointCount;
+    }
+
+    /**
+     * Returns the number of samples skipped because all of a stage's queries were pending.
+     */
+    public int getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * Returns a percentile (0 to 100) of a stage's recent GPU times in nanoseconds, or -1 if
+     * the stage has no results.
+     */
+    public long getPercentileNs(String name, float percentile) {
+        final Stage stage = findStage(name);
+        if (stage == null) {
+            return -1;
+        }
+        final long[] samples;
+        synchronized (stage.mHistory) {
+            if (stage.mHistoryCount == 0) {
+                return -1;
+            }
+            samples = Arrays.copyOf(stage.mHistory, stage.mHistoryCount);
+        }
+        Arrays.sort(samples);
+        final float clamped = Math.max(0.0f, Math.min(100.0f, percentile));
+        final int index = Math.round(clamped / 100.0f * (samples.length - 1));
+        return samples[index];
+    }
+
+    /**
+     * Returns the names of the stages timed so far.
+     */
+    public String[] getStageNames() {
+        synchronized (mStages) {
+            final String[] names = new String[mStages.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = mStages.get(i).mName;
+            }
+            return names;
+        }
+    }
+
+    /**
+     * Deletes the queries.
+     */
+    public void release() {
+        synchronized (mStages) {
+            for (int i = 0; i < mStages.size(); i++) {
+                GLES30.glDeleteQueries(QUERIES_PER_STAGE, mStages.get(i).mQueries, 0);
+            }
+            mStages.clear();
+        }
+        mActiveStage = null;
+    }
+
+    private Stage getStage(String name) {
+        for (int i = 0; i < mStages.size(); i++) {
+            if (mStages.get(i).mName.equals(name)) {
+                return mStages.get(i);
+            }
+        }
+        final Stage stage = new Stage(name);
+        synchronized (mStages) {
+            mStages.add(stage);
+        }
+        return stage;
+    }
+
+    private Stage findStage(String name) {
+        synchronized (mStages) {
+            for (int i = 0; i < mStages.size(); i++) {
+                if (mStages.get(i).mName.equals(name)) {
+                    return mStages.get(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void record(Stage stage, long elapsedNs) {
+        synchronized (stage.mHistory) {
+            stage.mHistory[stage.mHistoryNext] = elapsedNs;
+            stage.mHistoryNext = (stage.mHistoryNext + 1) % HISTORY_SIZE;
+            if (stage.mHistoryCount < HISTORY_SIZE) {
+                stage.mHistoryCount++;
+            }
+        }
+    }
+}
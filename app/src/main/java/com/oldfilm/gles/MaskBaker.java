@@ -0,0 +1,108 @@
+package com.oldfilm.gles;
+
+/**
+ * MaskBaker class.
+ * <p>
+ * Bakes the content-independent parts of the old-film shader into 8-bit luminance masks that
+ * the baked shader multiplies the colour by:
+ * <ul>
+ * <li>the vignette, a function of the texture coordinate and the vignetting value;</li>
+ * <li>the scratch lines, a function of the texture coordinate, the scratch turbulence and the
+ * phase (TimeLapse).  Where the scratches show up is still decided per frame by the shader.</li>
+ * </ul>
+ * Texel (x, y) holds the value at the texel centre, row by row from y = 0, as in
+ * {@link NoiseTextureBaker}.  Pure Java, no GL calls.
+ */
+public final class MaskBaker {
+
+    /** The vignette is smooth, it is baked at this fraction of the surface size. */
+    public static final int VIGNETTE_DOWNSCALE = 4;
+
+    /** Number of distinct scratch patterns; the shader used to pick one of 100 phases. */
+    public static final int SCRATCH_SEEDS = 8;
+
+    private MaskBaker() {
+    }
+
+    public static int vignetteWidth(int surfaceWidth) {
+        return Math.max(1, (surfaceWidth + VIGNETTE_DOWNSCALE - 1) / VIGNETTE_DOWNSCALE);
+    }
+
+    public static int vignetteHeight(int surfaceHeight) {
+        return Math.max(1, (surfaceHeight + VIGNETTE_DOWNSCALE - 1) / VIGNETTE_DOWNSCALE);
+    }
+
+    /**
+     * Bakes step 6 of the shader:
+     * {@code clamp((OuterVignetting - d) / (OuterVignetting - InnerVignetting), 0.0, 1.0)}.
+     */
+    public static byte[] bakeVignette(int width, int height, float vignetting) {
+        final float inner = 1.0f - vignetting;
+        final float outer = 1.4f - vignetting;
+        byte[] texels = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            final float dy = (y + 0.5f) / height - 0.5f;
+            for (int x = 0; x < width; x++) {
+                final float dx = (x + 0.5f) / width - 0.5f;
+                // Max distance from centre to corner is ~0.7. Scale that to 1.0.
+                final float d = (float) Math.sqrt(dx * dx + dy * dy) * 1.414213f;
+                texels[y * width + x] = encode((outer - d) / (outer - inner));
+            }
+        }
+        return texels;
+    }
+
+    /**
+     * Returns the TimeLapse value of a scratch seed, one of the phases the shader could pick.
+     */
+    public static float scratchPhase(int seed) {
+        return 1000.0f * (seed * (100 / SCRATCH_SEEDS)) / 50.0f;
+    }
+
+    /**
+     * Bakes the scratch lines of step 5 for a seed, using the turbulence texture the baked
+     * shader samples, filtered the way GL_LINEAR with GL_CLAMP_TO_EDGE would.
+     */
+    public static byte[] bakeScratches(int width, int height, int seed) {
+        final byte[] turbulence = NoiseTextureBaker.getTurbulence();
+        final int size = NoiseTextureBaker.TURBULENCE_SIZE;
+        final double phase = scratchPhase(seed);
+        byte[] texels = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            final float v = (y + 0.5f) / height;
+            for (int x = 0; x < width; x++) {
+                final float u = (x + 0.5f) / width;
+                final float t = sampleLinear(turbulence, size, u, v);
+                final float scratch = 0.5f
+                        + (float) Math.sin((u * 8.0f + v + t) * 3.141592f + phase) * 0.5f;
+                texels[y * width + x] = encode(scratch * 10000.0f + 0.35f);
+            }
+        }
+        return texels;
+    }
+
+    private static float sampleLinear(byte[] texels, int size, float u, float v) {
+        final float fx = Math.max(0.0f, Math.min(size - 1, u * size - 0.5f));
+        final float fy = Math.max(0.0f, Math.min(size - 1, v * size - 0.5f));
+        final int x0 = (int) fx;
+        final int y0 = (int) fy;
+        final int x1 = Math.min(x0 + 1, size - 1);
+        final int y1 = Math.min(y0 + 1, size - 1);
+        final float ax = fx - x0;
+        final float ay = fy - y0;
+        final float top = lerp(NoiseTextureBaker.decode(texels[y0 * size + x0]),
+                NoiseTextureBaker.decode(texels[y0 * size + x1]), ax);
+        final float bottom = lerp(NoiseTextureBaker.decode(texels[y1 * size + x0]),
+                NoiseTextureBaker.decode(texels[y1 * size + x1]), ax);
+        return lerp(top, bottom, ay);
+    }
+
+    private static float lerp(float a, float b, float t) {
+        return a + (b - a) * t;
+    }
+
+    private static byte encode(float value) {
+        final int v = Math.round(Math.max(0.0f, Math.min(1.0f, value)) * 255.0f);
+        return (byte) v;
+    }
+}
@@ -0,0 +1,271 @@
+package com.oldfilm.gles;
+
+/**
+ * NoiseTextureBaker class.
+ * <p>
+ * Bakes the old-film shader's 2D simplex noise ({@code snoise()} in
+ * old_film_fragment_shader.glsl) into 8-bit luminance textures, so the baked-noise shader can
+ * fetch it instead of evaluating it per pixel.  Texel (x, y) of {@link #bake} holds snoise at
+ * the texel centre, ((x + 0.5) * unitsPerTexel, (y + 0.5) * unitsPerTexel), encoded from
+ * [-1, 1] to [0, 255].
+ * <p>
+ * Simplex noise lives on a skewed lattice, so it has no axis-aligned period.  The grain tile
+ * from {@link #bakeTile} is instead laid out in the lattice's skewed coordinates, with the
+ * lattice wrapped to the tile's period: it repeats with GL_REPEAT without a seam or mirror
+ * symmetry, and a shader that skews its coordinates by {@link #GRAIN_SKEW} before sampling
+ * gets isotropic noise back.
+ * <p>
+ * Pure Java, no GL calls; bake on any thread and upload on a GL thread.
+ */
+public final class NoiseTextureBaker {
+
+    /** Grain texture: 256x256 texels covering 64x64 cells of the skewed lattice. */
+    public static final int GRAIN_SIZE = 256;
+    public static final int GRAIN_TEXELS_PER_UNIT = 4;
+    public static final int GRAIN_PERIOD = GRAIN_SIZE / GRAIN_TEXELS_PER_UNIT;
+
+    /** snoise()'s skew factor: (x, y) skews to (x + s, y + s), s = (x + y) * GRAIN_SKEW. */
+    public static final float GRAIN_SKEW = 0.366025403784439f;
+    private static final float UNSKEW = 0.211324865405187f; // (3 - sqrt(3)) / 6
+
+    /** Scratch turbulence texture: snoise(uv * 2.5) over uv in [0, 1]. */
+    public static final int TURBULENCE_SIZE = 128;
+    public static final float TURBULENCE_SCALE = 2.5f;
+
+    private static byte[] sGrain;
+    private static byte[] sTurbulence;
+
+    private NoiseTextureBaker() {
+    }
+
+    /**
+     * Returns the grain texture, baked on first use.
+     */
+    public static synchronized byte[] getGrain() {
+        if (sGrain == null) {
+            sGrain = bakeTile(GRAIN_SIZE, GRAIN_PERIOD);
+        }
+        return sGrain;
+    }
+
+    /**
+     * Returns the turbulence texture, baked on first use.
+     */
+    public static synchronized byte[] getTurbulence() {
+        if (sTurbulence == null) {
+            sTurbulence = bake(TURBULENCE_SIZE, TURBULENCE_SCALE / TURBULENCE_SIZE);
+        }
+        return sTurbulence;
+    }
+
+    /**
+     * Bakes a size x size texture, row by row from y = 0.
+     */
+    public static byte[] bake(int size, float unitsPerTexel) {
+        byte[] texels = new byte[size * size];
+        for (int y = 0; y < size; y++) {
+            final float vy = (y + 0.5f) * unitsPerTexel;
+            for (int x = 0; x < size; x++) {
+                texels[y * size + x] = encode(snoise((x + 0.5f) * unitsPerTexel, vy));
+            }
+        }
+        return texels;
+    }
+
+    /**
+     * Bakes a size x size tile of noise that repeats every period lattice cells.  Texel (x, y)
+     * is at ((x + 0.5), (y + 0.5)) * period / size in skewed coordinates, and holds
+     * {@code snoise(unskewed point, period)}.
+     */
+    public static byte[] bakeTile(int size, int period) {
+        final float cellsPerTexel = (float) period / size;
+        byte[] texels = new byte[size * size];
+        for (int y = 0; y < size; y++) {
+            final float qy = (y + 0.5f) * cellsPerTexel;
+            for (int x = 0; x < size; x++) {
+                final float qx = (x + 0.5f) * cellsPerTexel;
+                final float t = (qx + qy) * UNSKEW;
+                texels[y * size + x] = encode(snoise(qx - t, qy - t, period));
+            }
+        }
+        return texels;
+    }
+
+    /**
+     * Returns how many times the baked shader repeats the grain texture across the frame for
+     * a RandomValue; this keeps the frequency of snoise(vTexCoord * (504.0 + RandomValue * 252.0)).
+     */
+    public static float grainScale(float randomValue) {
+        return (504.0f + randomValue * 252.0f) / GRAIN_SIZE * GRAIN_TEXELS_PER_UNIT;
+    }
+
+    /**
+     * Returns the offset, in texture coordinates, of the grain texture for a RandomValue.
+     */
+    public static float grainOffsetX(float randomValue) {
+        return randomValue * 0.37f;
+    }
+
+    public static float grainOffsetY(float randomValue) {
+        return randomValue * 0.73f;
+    }
+
+    /**
+     * Bakes a width x height frame of grain: what the baked shader samples from the grain
+     * texture for a RandomValue, skewed by {@link #GRAIN_SKEW} and filtered the way GL_LINEAR
+     * with GL_REPEAT would.  Texels are encoded like the grain texture's.
+     */
+    public static byte[] bakeGrainFrame(int width, int height, float randomValue) {
+        final byte[] grain = getGrain();
+        final float scale = grainScale(randomValue);
+        final float offsetX = grainOffsetX(randomValue);
+        final float offsetY = grainOffsetY(randomValue);
+        byte[] texels = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            final float gy = ((y + 0.5f) / height) * scale;
+            for (int x = 0; x < width; x++) {
+                final float gx = ((x + 0.5f) / width) * scale;
+                final float skew = (gx + gy) * GRAIN_SKEW;
+                final float fx = (gx + skew + offsetX) * GRAIN_SIZE - 0.5f;
+                final float fy = (gy + skew + offsetY) * GRAIN_SIZE - 0.5f;
+                final int x0 = (int) Math.floor(fx);
+                final int y0 = (int) Math.floor(fy);
+                final float ax = fx - x0;
+                final float ay = fy - y0;
+                final int row0 = repeat(y0) * GRAIN_SIZE;
+                final int row1 = repeat(y0 + 1) * GRAIN_SIZE;
+                final int col0 = repeat(x0);
+                final int col1 = repeat(x0 + 1);
+                final float top = (grain[row0 + col0] & 0xff) * (1.0f - ax)
+                        + (grain[row0 + col1] & 0xff) * ax;
+                final float bottom = (grain[row1 + col0] & 0xff) * (1.0f - ax)
+                        + (grain[row1 + col1] & 0xff) * ax;
+                texels[y * width + x] = (byte) Math.round(top + (bottom - top) * ay);
+            }
+        }
+        return texels;
+    }
+
+    /**
+     * GL_REPEAT for a texel index of the grain texture.
+     */
+    private static int repeat(int index) {
+        final int m = index % GRAIN_SIZE;
+        return m < 0 ? m + GRAIN_SIZE : m;
+    }
+
+    /**
+     * Maps a noise value in [-1, 1] to an unsigned byte.  The shader undoes this with
+     * {@code value * 2.0 - 1.0}.
+     */
+    public static byte encode(float noise) {
+        int value = Math.round((noise * 0.5f + 0.5f) * 255.0f);
+        return (byte) Math.max(0, Math.min(255, value));
+    }
+
+    public static float decode(byte texel) {
+        return (texel & 0xff) / 255.0f * 2.0f - 1.0f;
+    }
+
+    /**
+     * The shader's snoise(), in single precision like the GLSL original.
+     */
+    public static float snoise(float vx, float vy) {
+        return snoise(vx, vy, 0);
+    }
+
+    /**
+     * snoise() with the lattice wrapped every period cells along both skewed axes, or not at
+     * all if period is 0.  Within the first period x period cells it equals snoise().
+     */
+    public static float snoise(float vx, float vy, int period) {
+        final float cx = 0.211324865405187f;  // (3.0-sqrt(3.0))/6.0
+        final float cy = 0.366025403784439f;  // 0.5*(sqrt(3.0)-1.0)
+        final float cz = -0.577350269189626f; // -1.0 + 2.0 * C.x
+        final float cw = 0.024390243902439f;  // 1.0 / 41.0
+
+        // First corner
+        final float s = (vx + vy) * cy;
+        float ix = floor(vx + s);
+        float iy = floor(vy + s);
+        final float t = (ix + iy) * cx;
+        final float x0x = vx - ix + t;
+        final float x0y = vy - iy + t;
+
+        // Other corners
+        final float i1x = x0x > x0y ? 1.0f : 0.0f;
+        final float i1y = x0x > x0y ? 0.0f : 1.0f;
+        final float x12x = x0x + cx - i1x;
+        final float x12y = x0y + cx - i1y;
+        final float x12z = x0x + cz;
+        final float x12w = x0y + cz;
+
+        // Permutations
+        final float p0;
+        final float p1;
+        final float p2;
+        if (period > 0) {
+            p0 = permute(permute(wrap(iy, period)) + wrap(ix, period));
+            p1 = permute(permute(wrap(iy + i1y, period)) + wrap(ix + i1x, period));
+            p2 = permute(permute(wrap(iy + 1.0f, period)) + wrap(ix + 1.0f, period));
+        } else {
+            ix = mod289(ix);
+            iy = mod289(iy);
+            p0 = permute(permute(iy) + ix);
+            p1 = permute(permute(iy + i1y) + ix + i1x);
+            p2 = permute(permute(iy + 1.0f) + ix + 1.0f);
+        }
+
+        float m0 = Math.max(0.5f - (x0x * x0x + x0y * x0y), 0.0f);
+        float m1 = Math.max(0.5f - (x12x * x12x + x12y * x12y), 0.0f);
+        float m2 = Math.max(0.5f - (x12z * x12z + x12w * x12w), 0.0f);
+        m0 *= m0;
+        m1 *= m1;
+        m2 *= m2;
+        m0 *= m0;
+        m1 *= m1;
+        m2 *= m2;
+
+        // Gradients: 41 points uniformly over a line, mapped onto a diamond.
+        final float gx0 = 2.0f * fract(p0 * cw) - 1.0f;
+        final float gx1 = 2.0f * fract(p1 * cw) - 1.0f;
+        final float gx2 = 2.0f * fract(p2 * cw) - 1.0f;
+        final float h0 = Math.abs(gx0) - 0.5f;
+        final float h1 = Math.abs(gx1) - 0.5f;
+        final float h2 = Math.abs(gx2) - 0.5f;
+        final float a0 = gx0 - floor(gx0 + 0.5f);
+        final float a1 = gx1 - floor(gx1 + 0.5f);
+        final float a2 = gx2 - floor(gx2 + 0.5f);
+
+        // Normalise gradients implicitly by scaling m
+        m0 *= 1.79284291400159f - 0.85373472095314f * (a0 * a0 + h0 * h0);
+        m1 *= 1.79284291400159f - 0.85373472095314f * (a1 * a1 + h1 * h1);
+        m2 *= 1.79284291400159f - 0.85373472095314f * (a2 * a2 + h2 * h2);
+
+        // Compute final noise value at P
+        final float g0 = a0 * x0x + h0 * x0y;
+        final float g1 = a1 * x12x + h1 * x12y;
+        final float g2 = a2 * x12z + h2 * x12w;
+        return 130.0f * (m0 * g0 + m1 * g1 + m2 * g2);
+    }
+
+    private static float floor(float x) {
+        return (float) Math.floor(x);
+    }
+
+    private static float fract(float x) {
+        return x - floor(x);
+    }
+
+    private static float wrap(float x, int period) {
+        return x - floor(x / period) * period;
+    }
+
+    private static float mod289(float x) {
+        return x - floor(x * (1.0f / 289.0f)) * 289.0f;
+    }
+
+    private static float permute(float x) {
+        return mod289((x * 34.0f + 1.0f) * x);
+    }
+}
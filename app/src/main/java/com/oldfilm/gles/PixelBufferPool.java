@@ -0,0 +1,188 @@
+package com.oldfilm.gles;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * PixelBufferPool class.
+ * <p>
+ * Hands out direct, native-order byte buffers for pixel read backs, keyed by capacity.  Heap
+ * buffers make glReadPixels copy through JNI; direct ones are written in place, but they are
+ * expensive to allocate and slow to be freed, so they are reused instead.  A buffer comes
+ * wrapped in a reference-counted {@link Lease}; when the last holder releases it, it goes
+ * back to the pool.  Free buffers are kept in least-recently-released order and the oldest
+ * are dropped once they hold more than the configured cap, so a resize reuses a buffer of
+ * the new size if there is one and lets the old size age out.
+ * <p>
+ * Leases are pooled with their buffers, so once the sizes in use have been seen the pool
+ * allocates nothing; {@link #getAllocatedCount()} shows it.  Thread-safe.
+ */
+public class PixelBufferPool {
+
+    public static final long DEFAULT_MAX_FREE_BYTES = 16L * 1024 * 1024;
+
+    private static PixelBufferPool sDefault;
+
+    /**
+     * A buffer on loan from the pool.  The holder that acquired it owns one reference; anyone
+     * else keeping the buffer takes one with {@link #retain()}.  Every reference must be
+     * released exactly once, after which the buffer must not be touched.
+     */
+    public static class Lease {
+        private final PixelBufferPool mPool;
+        private final ByteBuffer mBuffer;
+        private int mRefCount; // guarded by mPool
+
+        private Lease(PixelBufferPool pool, int capacity) {
+            mPool = pool;
+            mBuffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+        }
+
+        /**
+         * Returns the buffer, rewound, with its limit at its capacity.
+         */
+        public ByteBuffer getBuffer() {
+            mBuffer.clear();
+            return mBuffer;
+        }
+
+        public int getCapacity() {
+            return mBuffer.capacity();
+        }
+
+        public Lease retain() {
+            synchronized (mPool) {
+                if (mRefCount <= 0) {
+                    throw new IllegalStateException("lease already returned to the pool");
+                }
+                mRefCount++;
+            }
+            return this;
+        }
+
+        public void release() {
+            mPool.release(this);
+        }
+    }
+
+    private final long mMaxFreeBytes;
+
+    // Oldest release first.
+    private final ArrayList<Lease> mFree = new ArrayList<>();
+
+    private long mFreeBytes;
+    private long mLeasedBytes;
+    private int mAllocatedCount;
+    private int mReusedCount;
+    private int mEvictedCount;
+
+    /**
+     * Returns a process-wide pool with the default cap, for callers without one of their own.
+     */
+    public static synchronized PixelBufferPool getDefault() {
+        if (sDefault == null) {
+            sDefault = new PixelBufferPool();
+        }
+        return sDefault;
+    }
+
+    public PixelBufferPool() {
+        this(DEFAULT_MAX_FREE_BYTES);
+    }
+
+    /**
+     * @param maxFreeBytes Most bytes kept in free buffers; buffers in use don't count.
+     */
+    public PixelBufferPool(long maxFreeBytes) {
+        mMaxFreeBytes = maxFreeBytes;
+    }
+
+    /**
+     * Returns a lease on a buffer of exactly {@code capacity} bytes, allocating one if no free
+     * buffer has that capacity.
+     */
+    public synchronized Lease acquire(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive, got " + capacity);
+        }
+        Lease lease = null;
+        // Most recently released first.
+        for (int i = mFree.size() - 1; i >= 0; i--) {
+            if (mFree.get(i).getCapacity() == capacity) {
+                lease = mFree.remove(i);
+                mFreeBytes -= capacity;
+                mReusedCount++;
+                break;
+            }
+        }
+        if (lease == null) {
+            lease = new Lease(this, capacity);
+            mAllocatedCount++;
+        }
+        lease.mRefCount = 1;
+        mLeasedBytes += capacity;
+        return lease;
+    }
+
+    private synchronized void release(Lease lease) {
+        if (lease.mRefCount <= 0) {
+            throw new IllegalStateException("lease already returned to the pool");
+        }
+        if (--lease.mRefCount > 0) {
+            return;
+        }
+        mLeasedBytes -= lease.getCapacity();
+        mFree.add(lease);
+        mFreeBytes += lease.getCapacity();
+        while (mFreeBytes > mMaxFreeBytes && !mFree.isEmpty()) {
+            evict(0);
+        }
+    }
+
+    /**
+     * Returns the bytes held by leased plus free buffers.
+     */
+    public synchronized long getBytesHeld() {
+        return mLeasedBytes + mFreeBytes;
+    }
+
+    public synchronized long getFreeBytes() {
+        return mFreeBytes;
+    }
+
+    /**
+     * Returns the number of buffers allocated over the pool's lifetime.  It stops growing once
+     * the pool has buffers for every size in use.
+     */
+    public synchronized int getAllocatedCount() {
+        return mAllocatedCount;
+    }
+
+    /**
+     * Returns the number of acquisitions served by a free buffer.
+     */
+    public synchronized int getReusedCount() {
+        return mReusedCount;
+    }
+
+    public synchronized int getEvictedCount() {
+        return mEvictedCount;
+    }
+
+    /**
+     * Drops every free buffer.  Leased buffers are not affected.
+     */
+    public synchronized void clear() {
+        while (!mFree.isEmpty()) {
+            evict(mFree.size() - 1);
+        }
+    }
+
+    private void evict(int index) {
+        final Lease lease = mFree.remove(index);
+        mFreeBytes -= lease.getCapacity();
+        mEvictedCount++;
+        // The direct buffer is freed when the lease is collected.
+    }
+}
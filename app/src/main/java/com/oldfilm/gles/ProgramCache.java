@@ -0,0 +1,304 @@
+package com.oldfilm.gles;
+
+import android.content.Context;
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * ProgramCache class.
+ * <p>
+ * Keeps linked program binaries on disk so warm starts skip shader compilation.  Entries are
+ * keyed by a hash of both shader sources and the GL vendor, renderer and version strings;
+ * binaries are only valid for the driver that produced them, so a driver update wipes the
+ * cache.  Every entry carries a checksum, and an entry that is truncated, fails the checksum
+ * or is rejected by the driver is deleted and rebuilt from source.
+ * <p>
+ * Program binaries are core in GLES 3.0, so the cache is only installed on GLES3 contexts.
+ * Once installed, {@link ShaderUtils#createProgram(String, String)} and
+ * {@link GlUtil#createProgram(String, String)} go through it.  Safe to use from any thread
+ * with a current context.
+ */
+public class ProgramCache {
+
+    private static final String DIRECTORY = "program_cache";
+    private static final String DRIVER_FILE = "driver";
+    private static final String ENTRY_SUFFIX = ".bin";
+
+    private static final int MAGIC = 0x4f465042; // "OFPB"
+    private static final int FORMAT_VERSION = 1;
+
+    private static volatile ProgramCache sInstance;
+
+    private final File mDirectory;
+    private final String mDriver;
+
+    private final AtomicInteger mHitCount = new AtomicInteger();
+    private final AtomicInteger mMissCount = new AtomicInteger();
+    private final AtomicInteger mRejectedCount = new AtomicInteger();
+
+    private ProgramCache(File directory, String driver) {
+        mDirectory = directory;
+        mDriver = driver;
+    }
+
+    /**
+     * Installs the process-wide cache.  Must be called with a context current; does nothing
+     * if the context can't hand out program binaries or a cache is already installed.
+     */
+    public static synchronized ProgramCache install(Context context, EglCore eglCore) {
+        if (sInstance != null) {
+            return sInstance;
+        }
+        if (eglCore.getGlVersion() < 3) {
+            return null;
+        }
+        int[] formats = new int[1];
+        GLES20.glGetIntegerv(GLES30.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+        if (formats[0] <= 0) {
+            LogUtils.i("ProgramCache.install() - driver exposes no program binary formats");
+            return null;
+        }
+
+        final String driver = GLES20.glGetString(GLES20.GL_VENDOR) + "|"
+                + GLES20.glGetString(GLES20.GL_RENDERER) + "|"
+                + GLES20.glGetString(GLES20.GL_VERSION);
+        final File directory = new File(context.getCacheDir(), DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LogUtils.w("ProgramCache.install() - can't create " + directory);
+            return null;
+        }
+
+        ProgramCache cache = new ProgramCache(directory, driver);
+        cache.dropIfDriverChanged();
+        sInstance = cache;
+        return cache;
+    }
+
+    /**
+     * Returns the installed cache, or null.
+     */
+    public static ProgramCache getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Returns a linked program for the given sources, from disk if possible, otherwise compiled
+     * and stored for next time.
+     *
+     * @return A handle to the program, or 0 on failure.
+     */
+    public int getProgram(String vertexSource, String fragmentSource) {
+        final String key = key(vertexSource, fragmentSource);
+        final File file = new File(mDirectory, key + ENTRY_SUFFIX);
+
+        if (file.isFile()) {
+            int program = loadBinary(file);
+            if (program != 0) {
+                mHitCount.incrementAndGet();
+                return program;
+            }
+            mRejectedCount.incrementAndGet();
+            LogUtils.w("ProgramCache.getProgram() - rebuilding stale entry " + key);
+            file.delete();
+        }
+
+        mMissCount.incrementAndGet();
+        int program = ShaderUtils.linkProgram(vertexSource, fragmentSource, true);
+        if (program != 0) {
+            storeBinary(program, file);
+        }
+        return program;
+    }
+
+    public int getHitCount() {
+        return mHitCount.get();
+    }
+
+    public int getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Returns the number of entries found on disk but rejected as corrupt or stale.
+     */
+    public int getRejectedCount() {
+        return mRejectedCount.get();
+    }
+
+    private int loadBinary(File file) {
+        final int binaryFormat;
+        final byte[] binary;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return 0;
+            }
+            binaryFormat = in.readInt();
+            final int length = in.readInt();
+            final long checksum = in.readLong();
+            if (length <= 0 || length > file.length()) {
+                return 0;
+            }
+            binary = new byte[length];
+            in.readFully(binary);
+
+            CRC32 crc = new CRC32();
+            crc.update(binary, 0, length);
+            if (crc.getValue() != checksum) {
+                return 0;
+            }
+        } catch (IOException e) {
+            return 0;
+        } finally {
+            closeQuietly(in);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(binary.length).order(ByteOrder.nativeOrder());
+        buffer.put(binary);
+        buffer.position(0);
+
+        int program = GLES20.glCreateProgram();
+        GLES30.glProgramBinary(program, binaryFormat, buffer, binary.length);
+        // The driver may reject a binary it produced itself, e.g. after an update that kept
+        // its version string.  That is reported as a link failure.
+        int[] linkStatus = new int[1];
+        GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
+        final int error = GLES20.glGetError();
+        if (linkStatus[0] != GLES20.GL_TRUE || error != GLES20.GL_NO_ERROR) {
+            GLES20.glDeleteProgram(program);
+            return 0;
+        }
+        return program;
+    }
+
+    private void storeBinary(int program, File file) {
+        int[] values = new int[1];
+        GLES20.glGetProgramiv(program, GLES30.GL_PROGRAM_BINARY_LENGTH, values, 0);
+        final int length = values[0];
+        if (length <= 0) {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+        int[] binaryLength = new int[1];
+        int[] binaryFormat = new int[1];
+        GLES30.glGetProgramBinary(program, length, binaryLength, 0, binaryFormat, 0, buffer);
+        if (GLES20.glGetError() != GLES20.GL_NO_ERROR || binaryLength[0] <= 0) {
+            return;
+        }
+
+        byte[] binary = new byte[binaryLength[0]];
+        buffer.position(0);
+        buffer.get(binary);
+        CRC32 crc = new CRC32();
+        crc.update(binary, 0, binary.length);
+
+        // Write to a temporary file and rename it, so a crash never leaves a half-written
+        // entry behind and concurrent writers of the same key don't interleave.
+        File temp = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(binaryFormat[0]);
+            out.writeInt(binary.length);
+            out.writeLong(crc.getValue());
+            out.write(binary);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            LogUtils.w("ProgramCache.storeBinary() - " + e.getMessage());
+            closeQuietly(out);
+            temp.delete();
+        }
+    }
+
+    /**
+     * Deletes every entry if the cache was filled by a different driver.  The driver is part
+     * of each key already; this only keeps orphaned binaries from piling up.
+     */
+    private void dropIfDriverChanged() {
+        File driverFile = new File(mDirectory, DRIVER_FILE);
+        String previous = null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(driverFile));
+            previous = in.readUTF();
+        } catch (IOException e) {
+            // Missing or unreadable, treat as changed.
+        } finally {
+            closeQuietly(in);
+        }
+        if (mDriver.equals(previous)) {
+            return;
+        }
+
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(driverFile));
+            out.writeUTF(mDriver);
+        } catch (IOException e) {
+            LogUtils.w("ProgramCache.dropIfDriverChanged() - " + e.getMessage());
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private String key(String vertexSource, String fragmentSource) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(vertexSource.getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update(fragmentSource.getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update(mDriver.getBytes("UTF-8"));
+            byte[] hash = digest.digest();
+
+            char[] hex = new char[hash.length * 2];
+            for (int i = 0; i < hash.length; i++) {
+                hex[i * 2] = Character.forDigit((hash[i] >> 4) & 0xf, 16);
+                hex[i * 2 + 1] = Character.forDigit(hash[i] & 0xf, 16);
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Ignore.
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.oldfilm.gles;
+
+import android.opengl.GLES20;
+
+/**
+ * RenderTarget class.
+ * <p>
+ * A framebuffer object with a texture as its color attachment and, optionally, a 16-bit
+ * depth renderbuffer.  Full-screen 2D passes never depth test, so most targets go without.
+ */
+public class RenderTarget {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFormat;
+    private final boolean mHasDepth;
+
+    private int mFramebuffer;
+    private int mTextureId;
+    private int mDepthBuffer;
+
+    // Pool bookkeeping.
+    long mLastUsedFrame;
+
+    public RenderTarget(int width, int height) {
+        this(width, height, GLES20.GL_RGBA, false);
+    }
+
+    /**
+     * @param format Color format, GL_RGBA or GL_RGB (unsigned byte components).
+     * @param withDepth Whether to attach a depth renderbuffer.
+     */
+    public RenderTarget(int width, int height, int format, boolean withDepth) {
+        mWidth = width;
+        mHeight = height;
+        mFormat = format;
+        mHasDepth = withDepth;
+
+        int[] values = new int[1];
+
+        // Create a texture object and bind it.  This will be the color buffer.
+        GLES20.glGenTextures(1, values, 0);
+        GlUtil.checkGlError("glGenTextures");
+        mTextureId = values[0];
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId);
+        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, format, width, height, 0,
+                format, GLES20.GL_UNSIGNED_BYTE, null);
+        GlState.get().invalidateTextures();
+
+        // We're probably using non-power-of-two dimensions, so some values may not be
+        // available for use.
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
+                GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
+                GLES20.GL_CLAMP_TO_EDGE);
+        GlUtil.checkGlError("glTexParameter");
+
+        GLES20.glGenFramebuffers(1, values, 0);
+        mFramebuffer = values[0];
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
+                GLES20.GL_TEXTURE_2D, mTextureId, 0);
+        GlUtil.checkGlError("glFramebufferTexture2D");
+
+        if (withDepth) {
+            GLES20.glGenRenderbuffers(1, values, 0);
+            mDepthBuffer = values[0];
+            GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, mDepthBuffer);
+            GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER, GLES20.GL_DEPTH_COMPONENT16,
+                    width, height);
+            GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT,
+                    GLES20.GL_RENDERBUFFER, mDepthBuffer);
+            GlUtil.checkGlError("glFramebufferRenderbuffer");
+        }
+
+        // See if GLES is happy with all this.
+        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
+            release();
+            throw new RuntimeException("Framebuffer not complete, status=" + status);
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public boolean hasDepth() {
+        return mHasDepth;
+    }
+
+    public int getFramebuffer() {
+        return mFramebuffer;
+    }
+
+    public int getTextureId() {
+        return mTextureId;
+    }
+
+    /**
+     * Returns the GPU memory held by the attachments, in bytes.
+     */
+    public long getByteSize() {
+        return byteSize(mWidth, mHeight, mFormat, mHasDepth);
+    }
+
+    public static long byteSize(int width, int height, int format, boolean withDepth) {
+        final long pixels = (long) width * height;
+        final int colorBytes = format == GLES20.GL_RGB ? 3 : 4;
+        return pixels * colorBytes + (withDepth ? pixels * 2 : 0);
+    }
+
+    /**
+     * Binds the framebuffer and sets the viewport to cover it.
+     */
+    public void bind() {
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
+        GLES20.glViewport(0, 0, mWidth, mHeight);
+    }
+
+    /**
+     * Deletes the framebuffer and its attachments.  The context must be current.
+     */
+    public void release() {
+        int[] values = new int[1];
+        if (mFramebuffer != 0) {
+            values[0] = mFramebuffer;
+            GLES20.glDeleteFramebuffers(1, values, 0);
+            mFramebuffer = 0;
+        }
+        if (mDepthBuffer != 0) {
+            values[0] = mDepthBuffer;
+            GLES20.glDeleteRenderbuffers(1, values, 0);
+            mDepthBuffer = 0;
+        }
+        if (mTextureId != 0) {
+            values[0] = mTextureId;
+            GLES20.glDeleteTextures(1, values, 0);
+            GlState.get().onTextureDeleted(mTextureId);
+            mTextureId = 0;
+        }
+    }
+}
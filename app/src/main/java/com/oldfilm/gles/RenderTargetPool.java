@@ -0,0 +1,134 @@
+package com.oldfilm.gles;
+
+import android.opengl.GLES20;
+
+import java.util.ArrayList;
+
+/**
+ * RenderTargetPool class.
+ * <p>
+ * Hands out render targets keyed by size, color format and depth attachment, and takes them
+ * back for reuse, so passes that need intermediates every frame do not allocate GPU memory
+ * every frame.  Free targets are kept in least-recently-used order; once they hold more than
+ * the configured budget, or once they have gone unused for a while, the oldest are deleted.
+ * A resize therefore reuses matching targets and lets the mis-sized ones age out.
+ * <p>
+ * GL thread only, except the byte counters, which may be read from anywhere.
+ */
+public class RenderTargetPool {
+
+    public static final long DEFAULT_MAX_FREE_BYTES = 32L * 1024 * 1024;
+
+    // Free targets unused for this many frames are deleted by trim().
+    private static final int MAX_IDLE_FRAMES = 120;
+
+    private final long mMaxFreeBytes;
+
+    // Oldest release first.
+    private final ArrayList<RenderTarget> mFree = new ArrayList<>();
+
+    private volatile long mFreeBytes;
+    private volatile long mInUseBytes;
+    private int mAllocatedCount;
+    private int mEvictedCount;
+    private long mFrame;
+
+    public RenderTargetPool() {
+        this(DEFAULT_MAX_FREE_BYTES);
+    }
+
+    public RenderTargetPool(long maxFreeBytes) {
+        mMaxFreeBytes = maxFreeBytes;
+    }
+
+    /**
+     * Returns a free RGBA target of the given size, without depth, creating one if needed.
+     */
+    public RenderTarget acquire(int width, int height) {
+        return acquire(width, height, GLES20.GL_RGBA, false);
+    }
+
+    public RenderTarget acquire(int width, int height, int format, boolean withDepth) {
+        RenderTarget target = null;
+        // Most recently released first, it is the most likely to still be resident.
+        for (int i = mFree.size() - 1; i >= 0; i--) {
+            RenderTarget candidate = mFree.get(i);
+            if (candidate.getWidth() == width && candidate.getHeight() == height
+                    && candidate.getFormat() == format && candidate.hasDepth() == withDepth) {
+                target = mFree.remove(i);
+                mFreeBytes -= target.getByteSize();
+                break;
+            }
+        }
+
+        if (target == null) {
+            target = new RenderTarget(width, height, format, withDepth);
+            mAllocatedCount++;
+        }
+        mInUseBytes += target.getByteSize();
+        return target;
+    }
+
+    /**
+     * Returns a target to the pool.  The caller must not use it afterwards.
+     */
+    public void release(RenderTarget target) {
+        mInUseBytes -= target.getByteSize();
+        target.mLastUsedFrame = mFrame;
+        mFree.add(target);
+        mFreeBytes += target.getByteSize();
+
+        while (mFreeBytes > mMaxFreeBytes && !mFree.isEmpty()) {
+            evict(0);
+        }
+    }
+
+    /**
+     * Advances the pool's frame clock and deletes free targets that have not been used
+     * recently.  Call once per frame.
+     */
+    public void trim() {
+        mFrame++;
+        while (!mFree.isEmpty() && mFrame - mFree.get(0).mLastUsedFrame > MAX_IDLE_FRAMES) {
+            evict(0);
+        }
+    }
+
+    /**
+     * Returns the GPU memory held by targets in use plus free targets, in bytes.
+     */
+    public long getBytesHeld() {
+        return mInUseBytes + mFreeBytes;
+    }
+
+    public long getFreeBytes() {
+        return mFreeBytes;
+    }
+
+    /**
+     * Returns the number of targets created over the pool's lifetime.
+     */
+    public int getAllocatedCount() {
+        return mAllocatedCount;
+    }
+
+    public int getEvictedCount() {
+        return mEvictedCount;
+    }
+
+    /**
+     * Deletes every free target.  Targets still acquired are not affected.
+     */
+    public void clear() {
+        while (!mFree.isEmpty()) {
+            evict(mFree.size() - 1);
+        }
+    }
+
+    private void evict(int index) {
+        RenderTarget target = mFree.remove(index);
+        mFreeBytes -= target.getByteSize();
+        target.release();
+        mEvictedCount++;
+    }
+}
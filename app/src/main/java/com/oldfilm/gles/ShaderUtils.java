@@ -3,6 +3,7 @@ package com.oldfilm.gles;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 import android.opengl.GLUtils;
 import android.support.annotation.Nullable;
 import android.support.annotation.RawRes;
@@ -38,7 +39,26 @@ public class ShaderUtils {
         return createProgram(vertexSource, fragmentSource);
     }
 
+    /**
+     * Creates a new program from the supplied vertex and fragment shaders, through the
+     * {@link ProgramCache} if one is installed.
+     *
+     * @return A handle to the program, or 0 on failure.
+     */
     public static int createProgram(String vertexSource, String fragmentSource) {
+        final ProgramCache cache = ProgramCache.getInstance();
+        if (cache != null) {
+            return cache.getProgram(vertexSource, fragmentSource);
+        }
+        return linkProgram(vertexSource, fragmentSource, false);
+    }
+
+    /**
+     * Compiles and links a program, bypassing the cache.
+     *
+     * @param retrievable Whether to ask the driver to keep the binary retrievable (GLES3).
+     */
+    static int linkProgram(String vertexSource, String fragmentSource, boolean retrievable) {
         int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexSource);
         if (vertexShader == 0) {
             return 0;
@@ -56,6 +76,10 @@ public class ShaderUtils {
         checkGlError("glAttachShader");
         GLES20.glAttachShader(program, pixelShader);
         checkGlError("glAttachShader");
+        if (retrievable) {
+            GLES30.glProgramParameteri(program, GLES30.GL_PROGRAM_BINARY_RETRIEVABLE_HINT,
+                    GLES20.GL_TRUE);
+        }
         GLES20.glLinkProgram(program);
         int[] linkStatus = new int[1];
         GLES20.glGetProgramiv(program, GLES20.GL_LINK_STATUS, linkStatus, 0);
@@ -157,6 +181,32 @@ public class ShaderUtils {
         return fb;
     }
 
+    /**
+     * Turns a fragment shader written for an external (SurfaceTexture) sampler into one that
+     * samples a regular 2D texture, e.g. the color attachment of a render target.
+     */
+    public static String toSampler2D(String fragmentSource) {
+        return fragmentSource
+                .replace("#extension GL_OES_EGL_image_external : require", "")
+                .replace("samplerExternalOES", "sampler2D");
+    }
+
+    /**
+     * Prepends a {@code #define} for each name, e.g. to switch on {@code #ifdef} blocks.  The
+     * defines go after a leading {@code #version} line, which must stay first.
+     */
+    public static String withDefines(String source, String... names) {
+        final StringBuilder defines = new StringBuilder();
+        for (String name : names) {
+            defines.append("#define ").append(name).append('\n');
+        }
+        if (source.startsWith("#version")) {
+            final int lineEnd = source.indexOf('\n') + 1;
+            return source.substring(0, lineEnd) + defines + source.substring(lineEnd);
+        }
+        return defines + source;
+    }
+
     public static String readTextFromRawResource(final Context applicationContext,
                                                  @RawRes final int resourceId) {
         final InputStream inputStream =
@@ -0,0 +1,210 @@
+package com.oldfilm.gles;
+
+import android.os.Process;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracer class.
+ * <p>
+ * Structured tracing for hot paths, in place of string logging.  Events go into a ring of
+ * preallocated slots made of primitive fields (name id, phase, thread, timestamp, value), so
+ * recording one allocates nothing and takes no lock; once the ring is full the oldest events
+ * are overwritten.  Names are registered once, typically into static final fields:
+ * <pre>
+ *     private static final int TRACE_DRAW = Tracer.register("draw");
+ *     ...
+ *     if (Tracer.ENABLED) Tracer.begin(TRACE_DRAW);
+ * </pre>
+ * Guarding call sites with {@link #ENABLED}, a compile-time constant, lets javac drop them
+ * entirely when tracing is switched off.
+ * <p>
+ * {@link #exportChromeJson} writes the Chrome trace event format, which chrome://tracing and
+ * the Perfetto UI open directly.  Recording is safe from any thread; an event written while
+ * the ring is being exported may be left out, and so is an event whose slot is still being
+ * written by a thread a whole lap behind.
+ */
+public final class Tracer {
+
+    /** Set to false to strip every guarded call site at compile time. */
+    public static final boolean ENABLED = true;
+
+    private static final int CAPACITY = 8192; // events, a power of two
+    private static final int MASK = CAPACITY - 1;
+    private static final long BUSY = -1;
+
+    private static final byte PHASE_BEGIN = 'B';
+    private static final byte PHASE_END = 'E';
+    private static final byte PHASE_INSTANT = 'i';
+    private static final byte PHASE_COUNTER = 'C';
+
+    private static final ArrayList<String> sNames = new ArrayList<>();
+
+    private static final AtomicLong sNext = new AtomicLong();
+    // Per slot: index of the event it holds plus one, written last; BUSY while being written.
+    // Every field is read and written with volatile semantics, otherwise the sequence check
+    // could pass on a slot whose fields are still being written.  A writer claims its slot
+    // first, so two writers a lap apart can't mix their fields.
+    private static final AtomicLongArray sSequences = new AtomicLongArray(CAPACITY);
+    private static final AtomicLongArray sTimestamps = new AtomicLongArray(CAPACITY);
+    private static final AtomicLongArray sValues = new AtomicLongArray(CAPACITY);
+    private static final AtomicLongArray sThreads = new AtomicLongArray(CAPACITY);
+    private static final AtomicIntegerArray sNameIds = new AtomicIntegerArray(CAPACITY);
+    private static final AtomicIntegerArray sPhases = new AtomicIntegerArray(CAPACITY);
+
+    private Tracer() {
+    }
+
+    /**
+     * Returns the id of a name, registering it if needed.  Allocates; call it once per name.
+     */
+    public static int register(String name) {
+        synchronized (sNames) {
+            final int index = sNames.indexOf(name);
+            if (index >= 0) {
+                return index;
+            }
+            sNames.add(name);
+            return sNames.size() - 1;
+        }
+    }
+
+    /**
+     * Starts a slice on the calling thread.  Slices must nest.
+     */
+    public static void begin(int name) {
+        record(PHASE_BEGIN, name, 0);
+    }
+
+    /**
+     * Ends the calling thread's innermost slice.
+     */
+    public static void end(int name) {
+        record(PHASE_END, name, 0);
+    }
+
+    /**
+     * Records a point in time with a value.
+     */
+    public static void instant(int name, long value) {
+        record(PHASE_INSTANT, name, value);
+    }
+
+    /**
+     * Records the new value of a counter.
+     */
+    public static void counter(int name, long value) {
+        record(PHASE_COUNTER, name, value);
+    }
+
+    /**
+     * Returns the number of events recorded since the start, including overwritten ones.
+     */
+    public static long getRecordedCount() {
+        return sNext.get();
+    }
+
+    /**
+     * Writes the events in the ring to a file, as Chrome trace JSON.
+     */
+    public static void exportChromeJson(File file) throws IOException {
+        Writer writer = new BufferedWriter(new FileWriter(file));
+        try {
+            exportChromeJson(writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes the events in the ring, oldest first, as Chrome trace JSON.
+     */
+    public static void exportChromeJson(Writer writer) throws IOException {
+        exportChromeJson(writer, Process.myPid());
+    }
+
+    static void exportChromeJson(Writer writer, int pid) throws IOException {
+        final String[] names;
+        synchronized (sNames) {
+            names = sNames.toArray(new String[sNames.size()]);
+        }
+        final long end = sNext.get();
+        final long start = Math.max(0, end - CAPACITY);
+
+        writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        boolean first = true;
+        for (long index = start; index < end; index++) {
+            final int slot = (int) (index & MASK);
+            if (sSequences.get(slot) != index + 1) {
+                continue; // overwritten or still being written
+            }
+            final byte phase = (byte) sPhases.get(slot);
+            final int nameId = sNameIds.get(slot);
+            final long timestampNs = sTimestamps.get(slot);
+            final long value = sValues.get(slot);
+            final long thread = sThreads.get(slot);
+            if (sSequences.get(slot) != index + 1 || nameId < 0 || nameId >= names.length) {
+                continue;
+            }
+
+            writer.write(first ? "\n" : ",\n");
+            first = false;
+            writer.write("{\"name\":\"");
+            writeEscaped(writer, names[nameId]);
+            writer.write("\",\"ph\":\"");
+            writer.write((char) phase);
+            writer.write("\",\"ts\":");
+            writer.write(Long.toString(timestampNs / 1000));
+            writer.write('.');
+            writer.write(Long.toString(timestampNs % 1000 / 100));
+            writer.write(",\"pid\":");
+            writer.write(Integer.toString(pid));
+            writer.write(",\"tid\":");
+            writer.write(Long.toString(thread));
+            if (phase == PHASE_INSTANT) {
+                writer.write(",\"s\":\"t\",\"args\":{\"value\":" + value + "}");
+            } else if (phase == PHASE_COUNTER) {
+                writer.write(",\"args\":{\"value\":" + value + "}");
+            }
+            writer.write('}');
+        }
+        writer.write("\n]}\n");
+    }
+
+    private static void record(byte phase, int name, long value) {
+        final long index = sNext.getAndIncrement();
+        final int slot = (int) (index & MASK);
+        final long previous = sSequences.get(slot);
+        if (previous == BUSY || !sSequences.compareAndSet(slot, previous, BUSY)) {
+            return; // a writer a lap behind still holds the slot, drop the event
+        }
+        sPhases.set(slot, phase);
+        sNameIds.set(slot, name);
+        sTimestamps.set(slot, System.nanoTime());
+        sValues.set(slot, value);
+        sThreads.set(slot, Thread.currentThread().getId());
+        sSequences.set(slot, index + 1);
+    }
+
+    private static void writeEscaped(Writer writer, String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                writer.write('\\');
+                writer.write(c);
+            } else if (c < 0x20) {
+                writer.write(String.format("\\u%04x", (int) c));
+            } else {
+                writer.write(c);
+            }
+        }
+    }
+}
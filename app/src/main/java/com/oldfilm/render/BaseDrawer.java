@@ -1,52 +1,40 @@
 package com.oldfilm.render;
 
 import android.content.Context;
+import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
 import android.support.annotation.RawRes;
 
+import com.oldfilm.gles.FullFrameQuad;
+import com.oldfilm.gles.GlState;
 import com.oldfilm.gles.ShaderUtils;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 
 /**
  * BaseDrawer class.
  */
 public class BaseDrawer {
 
-    protected static final float[] sVertexData = {
-            1f, -1f, 0f,
-            -1f, -1f, 0f,
-            1f, 1f, 0f,
-            -1f, 1f, 0f
-    };
-
-    protected static final float[] sTextureVertexData = {
-            1f, 0f,
-            0f, 0f,
-            1f, 1f,
-            0f, 1f
-    };
-
-    protected static final float[] sProjectionMatrix = new float[16];
+    protected final float[] mProjectionMatrix = new float[16];
 
     protected Context mContext;
     protected int mTextureID;
+    protected int mTextureTarget = GLES11Ext.GL_TEXTURE_EXTERNAL_OES;
 
     protected int mProgramId;
 
-    protected FloatBuffer mVertexBuffer;
-    protected FloatBuffer mTextureVertexBuffer;
+    // Attributes aPosition and aTexCoord.
+    protected FullFrameQuad mQuad;
 
-    protected int aPositionLocation;
     protected int uMatrixLocation;
     protected int uTextureSamplerLocation;
-    protected int aTextureCoordLocation;
     protected int uSTMMatrixHandle;
 
     protected float[] mSTMatrix = new float[16];
+    protected float[] mRotationMatrix = new float[16];
+    protected float[] mTextureMatrix = new float[16];
 
     protected int mScreenWidth;
     protected int mScreenHeight;
@@ -62,36 +50,42 @@ public class BaseDrawer {
     }
 
     protected BaseDrawer(Context context, int textureID, @RawRes final int vertexResId, @RawRes final int fragmentResId) {
-        this(context, textureID);
+        this(context, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureID, vertexResId, fragmentResId);
+    }
 
-        mVertexBuffer = ByteBuffer.allocateDirect(sVertexData.length * 4)
-                .order(ByteOrder.nativeOrder())
-                .asFloatBuffer()
-                .put(sVertexData);
-        mVertexBuffer.position(0);
+    /**
+     * @param textureTarget GL_TEXTURE_EXTERNAL_OES to sample the decoder output, or
+     *                      GL_TEXTURE_2D to sample an intermediate render target.
+     */
+    protected BaseDrawer(Context context, int textureTarget, int textureID,
+                         @RawRes final int vertexResId, @RawRes final int fragmentResId) {
+        this(context, textureTarget, textureID,
+                ShaderUtils.readTextFromRawResource(context, vertexResId),
+                ShaderUtils.readTextFromRawResource(context, fragmentResId));
+    }
 
-        mTextureVertexBuffer = ByteBuffer.allocateDirect(sTextureVertexData.length * 4)
-                .order(ByteOrder.nativeOrder())
-                .asFloatBuffer()
-                .put(sTextureVertexData);
-        mTextureVertexBuffer.position(0);
+    /**
+     * Same as above with the shader sources given, e.g. with defines added.
+     */
+    protected BaseDrawer(Context context, int textureTarget, int textureID,
+                         final String vertexShaderString, String fragmentShaderString) {
+        this(context, textureID);
+        mTextureTarget = textureTarget;
 
-        final String vertexShaderString = ShaderUtils.readTextFromRawResource(context, vertexResId);
-        final String fragmentShaderString = ShaderUtils.readTextFromRawResource(context, fragmentResId);
+        Matrix.setIdentityM(mRotationMatrix, 0);
+        Matrix.setIdentityM(mSTMatrix, 0);
 
-        final int vertexShader = loadShader(GLES20.GL_VERTEX_SHADER, vertexShaderString);
-        final int fragmentShader = loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderString);
+        if (textureTarget == GLES20.GL_TEXTURE_2D) {
+            fragmentShaderString = ShaderUtils.toSampler2D(fragmentShaderString);
+        }
 
-        mProgramId = GLES20.glCreateProgram();             // create empty OpenGL ES Program
-        GLES20.glAttachShader(mProgramId, vertexShader);   // add the vertex shader to program
-        GLES20.glAttachShader(mProgramId, fragmentShader); // add the fragment shader to program
-        GLES20.glLinkProgram(mProgramId);                  // creates OpenGL ES program executables
+        // Served from the program binary cache on warm starts.
+        mProgramId = ShaderUtils.createProgram(vertexShaderString, fragmentShaderString);
 
-        aPositionLocation = GLES20.glGetAttribLocation(mProgramId, "aPosition");
         uMatrixLocation = GLES20.glGetUniformLocation(mProgramId, "uMatrix");
         uSTMMatrixHandle = GLES20.glGetUniformLocation(mProgramId, "uSTMatrix");
         uTextureSamplerLocation = GLES20.glGetUniformLocation(mProgramId, "sTexture");
-        aTextureCoordLocation = GLES20.glGetAttribLocation(mProgramId, "aTexCoord");
+        mQuad = new FullFrameQuad(mProgramId, "aPosition", "aTexCoord", false);
     }
 
     public void startRender() {
@@ -106,6 +100,35 @@ public class BaseDrawer {
         return mSTMatrix;
     }
 
+    public int getTextureTarget() {
+        return mTextureTarget;
+    }
+
+    public void setTextureId(int textureID) {
+        mTextureID = textureID;
+    }
+
+    /**
+     * Rotates the sampled image about its centre.  Applied to the texture coordinates ahead of
+     * the SurfaceTexture transform, e.g. 90 degrees maps (x, y) to (1 - y, x).
+     */
+    public void setTextureRotation(int degrees) {
+        Matrix.setIdentityM(mRotationMatrix, 0);
+        if (degrees % 360 != 0) {
+            Matrix.translateM(mRotationMatrix, 0, 0.5f, 0.5f, 0f);
+            Matrix.rotateM(mRotationMatrix, 0, degrees, 0f, 0f, 1f);
+            Matrix.translateM(mRotationMatrix, 0, -0.5f, -0.5f, 0f);
+        }
+    }
+
+    /**
+     * Returns the SurfaceTexture transform with the rotation folded in.
+     */
+    protected float[] getTextureMatrix() {
+        Matrix.multiplyMM(mTextureMatrix, 0, mSTMatrix, 0, mRotationMatrix, 0);
+        return mTextureMatrix;
+    }
+
     public void updateProjection(int screenWidth, int screenHeight, int videoWidth, int videoHeight) {
         mScreenWidth = screenWidth;
         mScreenHeight = screenHeight;
@@ -116,9 +139,9 @@ public class BaseDrawer {
         float screenRatio = (float) screenWidth / screenHeight;
         float videoRatio = (float) videoWidth / videoHeight;
         if (videoRatio > screenRatio) {
-            Matrix.orthoM(sProjectionMatrix, 0, -1f, 1f, -videoRatio / screenRatio, videoRatio / screenRatio, -1f, 1f);
+            Matrix.orthoM(mProjectionMatrix, 0, -1f, 1f, -videoRatio / screenRatio, videoRatio / screenRatio, -1f, 1f);
         } else {
-            Matrix.orthoM(sProjectionMatrix, 0, -screenRatio / videoRatio, screenRatio / videoRatio, -1f, 1f, -1f, 1f);
+            Matrix.orthoM(mProjectionMatrix, 0, -screenRatio / videoRatio, screenRatio / videoRatio, -1f, 1f, -1f, 1f);
         }
     }
 
@@ -127,35 +150,29 @@ public class BaseDrawer {
             return;
         }
 
-        GLES20.glUseProgram(mProgramId);
-
-        GLES20.glEnable(GLES20.GL_BLEND);
-        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        final GlState state = GlState.get();
+        state.useProgram(mProgramId);
 
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_SAMPLER_2D, mTextureID);
+        state.setBlendEnabled(true);
+        state.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
 
-        GLES20.glUniformMatrix4fv(uMatrixLocation, 1, false, sProjectionMatrix, 0);
-        GLES20.glUniformMatrix4fv(uSTMMatrixHandle, 1, false, mSTMatrix, 0);
+        state.activeTexture(GLES20.GL_TEXTURE0);
+        state.bindTexture(mTextureTarget, mTextureID);
 
-        mVertexBuffer.position(0);
-        GLES20.glEnableVertexAttribArray(aPositionLocation);
-        GLES20.glVertexAttribPointer(aPositionLocation, 3, GLES20.GL_FLOAT, false,
-                12, mVertexBuffer);
+        state.uniformMatrix4fv(uMatrixLocation, mProjectionMatrix, 0);
+        state.uniformMatrix4fv(uSTMMatrixHandle, getTextureMatrix(), 0);
 
-        mTextureVertexBuffer.position(0);
-        GLES20.glEnableVertexAttribArray(aTextureCoordLocation);
-        GLES20.glVertexAttribPointer(aTextureCoordLocation, 2, GLES20.GL_FLOAT, false, 8, mTextureVertexBuffer);
+        GLES20.glViewport(0, 0, width, height);
+        mQuad.draw();
 
-        GLES20.glViewport(0, 0, mScreenWidth, mScreenHeight);
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
-
-        GLES20.glDisable(GLES20.GL_BLEND);
-        GLES20.glUseProgram(0);
+        // Program and blending stay set, the next drawer most likely wants the same.
     }
 
     public void destroy() {
         stopRender();
+        if (mQuad != null) {
+            mQuad.release();
+        }
     }
 
     protected static int loadShader(int type, String shaderCode) {
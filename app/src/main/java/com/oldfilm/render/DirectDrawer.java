@@ -1,6 +1,7 @@
 package com.oldfilm.render;
 
 import android.content.Context;
+import android.opengl.GLES11Ext;
 
 import com.oldfilm.R;
 
@@ -9,6 +10,10 @@ import com.oldfilm.R;
  */
 public class DirectDrawer extends BaseDrawer {
     public DirectDrawer(Context context, int textureID) {
-        super(context, textureID, R.raw.direct_vertex_shader, R.raw.direct_fragment_shader);
+        this(context, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureID);
+    }
+
+    public DirectDrawer(Context context, int textureTarget, int textureID) {
+        super(context, textureTarget, textureID, R.raw.direct_vertex_shader, R.raw.direct_fragment_shader);
     }
 }
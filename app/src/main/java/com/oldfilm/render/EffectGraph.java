@@ -0,0 +1,313 @@
+package com.oldfilm.render;
+
+import android.content.Context;
+import android.opengl.GLES20;
+
+import com.oldfilm.gles.GpuTimer;
+import com.oldfilm.gles.RenderTarget;
+import com.oldfilm.gles.RenderTargetPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * EffectGraph class.
+ * <p>
+ * Runs a chain of drawers: a source stage that samples the decoder's external texture,
+ * followed by any number of post stages that sample the previous stage's output.  Only
+ * enabled stages run; intermediates ping-pong between two render targets taken from a
+ * {@link RenderTargetPool} and the last stage draws straight into the bound window surface.
+ * With no post stage enabled the source draws to the window and no target is used at all.
+ * <p>
+ * The source may be rendered at a reduced scale ({@link #setSourceScale(float)}) into a
+ * smaller target.  The first post stage then upscales it as it samples it; without one, an
+ * upscale drawer ({@link #setUpscaleDrawer(BaseDrawer)}) copies it to the window with
+ * bilinear filtering.
+ * <p>
+ * Given a {@link GpuTimer}, each stage's GPU time is measured under the stage's name.
+ * <p>
+ * {@link #draw(long)} and the stage list mutators run on the GL thread; stage enablement and
+ * cost counters may be read and written from any thread.
+ */
+public class EffectGraph {
+
+    public static final String SOURCE_STAGE = "source";
+    public static final String UPSCALE_STAGE = "upscale";
+
+    public interface StageFactory {
+        /**
+         * Creates the drawer of a post stage on the GL thread.  The drawer must sample
+         * GL_TEXTURE_2D, e.g. {@code new DirectDrawer(context, GLES20.GL_TEXTURE_2D, 0)}.
+         */
+        BaseDrawer create(Context context);
+    }
+
+    public static class Stage {
+        private final String mName;
+        private BaseDrawer mDrawer;
+        private volatile boolean mEnabled = true;
+
+        private volatile long mLastCpuTimeNs;
+        private volatile long mTotalCpuTimeNs;
+        private volatile int mFrameCount;
+
+        Stage(String name, BaseDrawer drawer) {
+            mName = name;
+            mDrawer = drawer;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public BaseDrawer getDrawer() {
+            return mDrawer;
+        }
+
+        public boolean isEnabled() {
+            return mEnabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            mEnabled = enabled;
+        }
+
+        /**
+         * Returns the CPU time spent issuing this stage's last frame, in nanoseconds.
+         */
+        public long getLastCpuTimeNs() {
+            return mLastCpuTimeNs;
+        }
+
+        public long getAverageCpuTimeNs() {
+            final int frames = mFrameCount;
+            return frames == 0 ? 0 : mTotalCpuTimeNs / frames;
+        }
+
+        void record(long elapsedNs) {
+            mLastCpuTimeNs = elapsedNs;
+            mTotalCpuTimeNs += elapsedNs;
+            mFrameCount++;
+        }
+    }
+
+    private final RenderTargetPool mPool;
+    private GpuTimer mGpuTimer;
+    private final Stage mSource = new Stage(SOURCE_STAGE, null);
+    private final Stage mUpscale = new Stage(UPSCALE_STAGE, null);
+    private float mSourceScale = 1.0f;
+    private final List<Stage> mStages = new CopyOnWriteArrayList<>();
+    private final List<Stage> mActiveStages = new ArrayList<>();
+
+    private int mWidth;
+    private int mHeight;
+
+    public EffectGraph(RenderTargetPool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * Sets the timer the stages are measured with, or null.
+     */
+    public void setGpuTimer(GpuTimer gpuTimer) {
+        mGpuTimer = gpuTimer;
+    }
+
+    /**
+     * Sets the drawer that reads the external texture.  It always runs.
+     */
+    public void setSource(BaseDrawer source) {
+        mSource.mDrawer = source;
+    }
+
+    /**
+     * Sets the scale, at most 1, the source is rendered at.
+     */
+    public void setSourceScale(float scale) {
+        mSourceScale = Math.max(0.0f, Math.min(1.0f, scale));
+    }
+
+    public float getSourceScale() {
+        return mSourceScale;
+    }
+
+    /**
+     * Sets the drawer that copies a scaled source to the window when no post stage runs, or
+     * null.  It must sample GL_TEXTURE_2D; it is owned by the caller.  Until there is one, the
+     * source is drawn at full scale whenever no post stage runs.
+     */
+    public void setUpscaleDrawer(BaseDrawer drawer) {
+        mUpscale.mDrawer = drawer;
+        if (drawer != null && mWidth > 0 && mHeight > 0) {
+            drawer.updateProjection(mWidth, mHeight, mWidth, mHeight);
+        }
+    }
+
+    public Stage getSourceStage() {
+        return mSource;
+    }
+
+    /**
+     * Appends a post stage.  Replaces any stage with the same name.
+     */
+    public Stage addStage(String name, BaseDrawer drawer) {
+        removeStage(name);
+
+        Stage stage = new Stage(name, drawer);
+        if (mWidth > 0 && mHeight > 0) {
+            drawer.updateProjection(mWidth, mHeight, mWidth, mHeight);
+        }
+        drawer.startRender();
+        mStages.add(stage);
+        return stage;
+    }
+
+    public void removeStage(String name) {
+        Stage stage = getStage(name);
+        if (stage != null) {
+            mStages.remove(stage);
+            stage.mDrawer.destroy();
+        }
+    }
+
+    public Stage getStage(String name) {
+        if (SOURCE_STAGE.equals(name)) {
+            return mSource;
+        }
+        for (int i = 0; i < mStages.size(); i++) {
+            Stage stage = mStages.get(i);
+            if (stage.mName.equals(name)) {
+                return stage;
+            }
+        }
+        return null;
+    }
+
+    public List<Stage> getStages() {
+        return mStages;
+    }
+
+    /**
+     * Sets the output size.  Intermediates are allocated at this size and post stages map
+     * their input onto the full viewport.
+     */
+    public void setSize(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        for (int i = 0; i < mStages.size(); i++) {
+            mStages.get(i).mDrawer.updateProjection(width, height, width, height);
+        }
+        if (mUpscale.mDrawer != null) {
+            mUpscale.mDrawer.updateProjection(width, height, width, height);
+        }
+    }
+
+    /**
+     * Runs the enabled stages.  The window surface must be current and bound; it is bound
+     * again when this returns.
+     *
+     * @param positionMs Media position of the frame, from the renderer's {@link PlaybackClock}.
+     */
+    public void draw(long positionMs) {
+        mActiveStages.clear();
+        for (int i = 0; i < mStages.size(); i++) {
+            Stage stage = mStages.get(i);
+            if (stage.mEnabled) {
+                mActiveStages.add(stage);
+            }
+        }
+
+        int sourceWidth = Math.max(1, Math.round(mWidth * mSourceScale));
+        int sourceHeight = Math.max(1, Math.round(mHeight * mSourceScale));
+        final boolean isScaled = sourceWidth != mWidth || sourceHeight != mHeight;
+        if (isScaled && mActiveStages.isEmpty()) {
+            if (mUpscale.mDrawer != null) {
+                mActiveStages.add(mUpscale);
+            } else {
+                sourceWidth = mWidth;
+                sourceHeight = mHeight;
+            }
+        }
+
+        if (mActiveStages.isEmpty()) {
+            drawStage(mSource, mWidth, mHeight, positionMs);
+            return;
+        }
+
+        RenderTarget input = mPool.acquire(sourceWidth, sourceHeight);
+        RenderTarget spare = null;
+
+        input.bind();
+        clear();
+        drawStage(mSource, sourceWidth, sourceHeight, positionMs);
+        // A scaled source goes back to the pool as soon as it has been upscaled.
+        RenderTarget scaledInput = sourceWidth != mWidth || sourceHeight != mHeight
+                ? input : null;
+
+        final int count = mActiveStages.size();
+        for (int i = 0; i < count; i++) {
+            final Stage stage = mActiveStages.get(i);
+            RenderTarget output = null;
+            if (i == count - 1) {
+                GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+                GLES20.glViewport(0, 0, mWidth, mHeight);
+            } else {
+                if (spare == null) {
+                    spare = mPool.acquire(mWidth, mHeight);
+                }
+                output = spare;
+                output.bind();
+                clear();
+            }
+
+            stage.mDrawer.setTextureId(input.getTextureId());
+            drawStage(stage, mWidth, mHeight, positionMs);
+
+            if (output != null) {
+                if (input == scaledInput) {
+                    mPool.release(scaledInput);
+                    scaledInput = null;
+                    spare = null;
+                } else {
+                    spare = input;
+                }
+                input = output;
+            }
+        }
+
+        mPool.release(input);
+        if (spare != null) {
+            mPool.release(spare);
+        }
+    }
+
+    /**
+     * Destroys the post stages' drawers and forgets them.  The source is owned by the caller.
+     */
+    public void release() {
+        for (int i = 0; i < mStages.size(); i++) {
+            mStages.get(i).mDrawer.destroy();
+        }
+        mStages.clear();
+        mActiveStages.clear();
+    }
+
+    private void drawStage(Stage stage, int width, int height, long positionMs) {
+        final GpuTimer gpuTimer = mGpuTimer;
+        if (gpuTimer != null) {
+            gpuTimer.begin(stage.mName);
+        }
+        final long startNs = System.nanoTime();
+        stage.mDrawer.draw(null, width, height, positionMs);
+        stage.record(System.nanoTime() - startNs);
+        if (gpuTimer != null) {
+            gpuTimer.end();
+        }
+    }
+
+    private static void clear() {
+        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+    }
+}
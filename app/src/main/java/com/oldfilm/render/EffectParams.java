@@ -0,0 +1,179 @@
+package com.oldfilm.render;
+
+import com.oldfilm.gles.ColorLutBuilder;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * EffectParams class.
+ * <p>
+ * The old-film slider values, set from the UI thread and picked up by the render thread once
+ * per frame.  It is a seqlock over primitive arrays: a writer makes the sequence odd, stores
+ * the values (plus, when sepia changes, the colour LUT, built on the writer's thread) and
+ * makes it even again.  The reader copies everything into its own {@link Snapshot} and keeps
+ * the copy only if the sequence was even and unchanged across it; otherwise it keeps its
+ * previous snapshot and tries again on the next frame.  The render thread never takes a lock
+ * or waits, and a slider tick allocates nothing.
+ * <p>
+ * The sequence doubles as a version, so the reader knows when uniforms need uploading.  Values
+ * are kept in atomic arrays so every load and store is volatile, which is what makes the
+ * reader's check sound under the Java memory model.
+ */
+public class EffectParams {
+
+    public static final int SEPIA = 0;
+    public static final int NOISE = 1;
+    public static final int SCRATCH = 2;
+    public static final int VIGNETTING = 3;
+    public static final int COUNT = 4;
+
+    public static final float DEFAULT_VALUE = 0.5f;
+
+    private static final int LUT_BYTES = ColorLutBuilder.SIZE * ColorLutBuilder.CHANNELS;
+    private static final int LUT_WORDS = (LUT_BYTES + 3) / 4;
+
+    private final AtomicInteger mSequence = new AtomicInteger();
+    private final AtomicIntegerArray mValues = new AtomicIntegerArray(COUNT);
+    private final AtomicIntegerArray mColorLut = new AtomicIntegerArray(LUT_WORDS);
+    private final byte[] mLutScratch = new byte[LUT_BYTES]; // guarded by this
+
+    public EffectParams() {
+        for (int i = 0; i < COUNT; i++) {
+            mValues.set(i, Float.floatToIntBits(DEFAULT_VALUE));
+        }
+        ColorLutBuilder.build(DEFAULT_VALUE, mLutScratch);
+        storeColorLut();
+    }
+
+    /**
+     * Sets one of {@link #SEPIA}, {@link #NOISE}, {@link #SCRATCH} or {@link #VIGNETTING},
+     * 0.0 - 1.0.  A new sepia value rebuilds the colour LUT on the calling thread.
+     */
+    public synchronized void set(int index, float value) {
+        final int bits = Float.floatToIntBits(value);
+        if (mValues.get(index) == bits) {
+            return;
+        }
+        if (index == SEPIA) {
+            ColorLutBuilder.build(value, mLutScratch);
+        }
+        mSequence.incrementAndGet(); // odd: write in progress
+        mValues.set(index, bits);
+        if (index == SEPIA) {
+            storeColorLut();
+        }
+        mSequence.incrementAndGet();
+    }
+
+    /**
+     * Returns the latest value, for callers that don't need it consistent with the others.
+     */
+    public float get(int index) {
+        return Float.intBitsToFloat(mValues.get(index));
+    }
+
+    /**
+     * Copies the values into a snapshot if they changed since it was last filled.  Never
+     * blocks; returns false, leaving the snapshot as it was, when nothing changed or a write
+     * was in progress.  Each snapshot must be read by one thread only.
+     */
+    public boolean read(Snapshot snapshot) {
+        final int sequence = mSequence.get();
+        if (sequence == snapshot.mVersion || (sequence & 1) != 0) {
+            return false;
+        }
+
+        final float[] values = snapshot.mSpareValues;
+        for (int i = 0; i < COUNT; i++) {
+            values[i] = Float.intBitsToFloat(mValues.get(i));
+        }
+        final boolean lutChanged = snapshot.mVersion == Snapshot.NO_VERSION
+                || Float.floatToIntBits(values[SEPIA])
+                        != Float.floatToIntBits(snapshot.mValues[SEPIA]);
+        if (lutChanged) {
+            loadColorLut(snapshot.mSpareColorLut);
+        }
+        if (mSequence.get() != sequence) {
+            return false;
+        }
+
+        snapshot.mSpareValues = snapshot.mValues;
+        snapshot.mValues = values;
+        if (lutChanged) {
+            final byte[] lut = snapshot.mSpareColorLut;
+            snapshot.mSpareColorLut = snapshot.mColorLut;
+            snapshot.mColorLut = lut;
+            snapshot.mColorLutChanged = true;
+        }
+        snapshot.mVersion = sequence;
+        return true;
+    }
+
+    private void storeColorLut() {
+        for (int word = 0; word < LUT_WORDS; word++) {
+            int packed = 0;
+            for (int b = 0; b < 4; b++) {
+                final int i = word * 4 + b;
+                if (i < LUT_BYTES) {
+                    packed |= (mLutScratch[i] & 0xff) << (b * 8);
+                }
+            }
+            mColorLut.set(word, packed);
+        }
+    }
+
+    private void loadColorLut(byte[] lut) {
+        for (int word = 0; word < LUT_WORDS; word++) {
+            final int packed = mColorLut.get(word);
+            for (int b = 0; b < 4; b++) {
+                final int i = word * 4 + b;
+                if (i < LUT_BYTES) {
+                    lut[i] = (byte) (packed >>> (b * 8));
+                }
+            }
+        }
+    }
+
+    /**
+     * The reader's copy of the values.
+     */
+    public static class Snapshot {
+        private static final int NO_VERSION = -1; // odd, so never a published sequence
+
+        private float[] mValues = new float[COUNT];
+        private float[] mSpareValues = new float[COUNT];
+        private byte[] mColorLut = new byte[LUT_BYTES];
+        private byte[] mSpareColorLut = new byte[LUT_BYTES];
+        private boolean mColorLutChanged;
+        private int mVersion = NO_VERSION;
+
+        public float get(int index) {
+            return mValues[index];
+        }
+
+        /**
+         * Returns the colour LUT for the snapshot's sepia value, SIZE x 1 RGB.
+         */
+        public byte[] getColorLut() {
+            return mColorLut;
+        }
+
+        /**
+         * Returns whether the colour LUT changed since the last call.
+         */
+        public boolean consumeColorLutChange() {
+            final boolean changed = mColorLutChanged;
+            mColorLutChanged = false;
+            return changed;
+        }
+
+        /**
+         * Forgets the version, so the next read copies everything; call it when switching to
+         * another {@link EffectParams}.
+         */
+        public void reset() {
+            mVersion = NO_VERSION;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.oldfilm.render;
+
+import android.content.Context;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+
+import com.oldfilm.gles.LogUtils;
+import com.oldfilm.gles.MaskBaker;
+import com.oldfilm.gles.RenderTarget;
+import com.oldfilm.gles.RenderTargetPool;
+
+/**
+ * FillRateBenchmark class.
+ * <p>
+ * Compares the fill rate of the procedural old-film shader against the baked variant, which
+ * fetches its noise and colour grading from textures.  Each drawer fills an offscreen target a number of
+ * times between two glFinish() calls, so the result is wall time per pixel on the GPU, not
+ * just the cost of issuing the draws.  Meant for diagnostics; it stalls the render thread.
+ */
+public class FillRateBenchmark {
+
+    private static final int DRAW_COUNT = 30;
+
+    public interface Callback {
+        /**
+         * Called on the render thread with both fill rates, in megapixels per second.
+         */
+        void onFillRateMeasured(double proceduralMpixPerSec, double bakedMpixPerSec);
+    }
+
+    private FillRateBenchmark() {
+    }
+
+    /**
+     * Runs the comparison at the given size.  Render thread only; binds the default
+     * framebuffer when done.
+     */
+    public static void compareNoise(Context context, int textureId, RenderTargetPool pool,
+                                    int width, int height, Callback callback) {
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        OldFilmDrawer procedural = new OldFilmDrawer(context, GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
+                textureId, false);
+        OldFilmDrawer baked = new OldFilmDrawer(context, GLES11Ext.GL_TEXTURE_EXTERNAL_OES,
+                textureId, true);
+        // Bake every mask up front, the timed draws must not.
+        MaskCache maskCache = new MaskCache(null, null, Long.MAX_VALUE);
+        for (int seed = 0; seed < MaskBaker.SCRATCH_SEEDS; seed++) {
+            maskCache.getScratchMask(width, height, seed);
+        }
+        baked.setMaskCache(maskCache);
+
+        RenderTarget target = pool.acquire(width, height);
+        try {
+            target.bind();
+            final double proceduralRate = measure(procedural, width, height);
+            final double bakedRate = measure(baked, width, height);
+            LogUtils.i("FillRateBenchmark - procedural " + (int) proceduralRate
+                    + " Mpix/s, baked " + (int) bakedRate + " Mpix/s");
+            callback.onFillRateMeasured(proceduralRate, bakedRate);
+        } finally {
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            pool.release(target);
+            procedural.destroy();
+            baked.destroy();
+            maskCache.release();
+        }
+    }
+
+    private static double measure(OldFilmDrawer drawer, int width, int height) {
+        drawer.updateProjection(width, height, width, height);
+        drawer.startRender();
+
+        // Warm up: the first draw may trigger lazy shader and texture work in the driver.
+        drawer.draw(null, width, height, 0);
+        GLES20.glFinish();
+
+        final long startNs = System.nanoTime();
+        for (int i = 0; i < DRAW_COUNT; i++) {
+            drawer.draw(null, width, height, 0);
+        }
+        GLES20.glFinish();
+        final long elapsedNs = Math.max(1, System.nanoTime() - startNs);
+
+        return (double) width * height * DRAW_COUNT / elapsedNs * 1000.0;
+    }
+}
@@ -0,0 +1,87 @@
+package com.oldfilm.render;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FrameClock class.
+ * <p>
+ * A {@link PlaybackClock} driven by the timestamps of the frames the render thread latches.
+ * The player's position is read only at discontinuities (prepare, seek, resume) and handed to
+ * {@link #anchor(int)}; the next latched frame is taken to be at that position, and every
+ * later frame is placed by how far its timestamp has moved since.  Timestamps running
+ * backwards mean the media looped, which restarts the clock at 0.
+ * <p>
+ * {@link #onFrameLatched(long)} is called on the render thread only; everything else may be
+ * called from any thread.
+ */
+public class FrameClock implements PlaybackClock {
+
+    private static final int NO_ANCHOR = -1;
+
+    private final AtomicInteger mPendingAnchorMs = new AtomicInteger(0);
+    private volatile int mDurationMs;
+    private volatile int mPositionMs;
+    private volatile long mFrameTimeNs;
+
+    // Render thread only.
+    private long mAnchorPositionMs;
+    private long mAnchorTimestampNs = -1;
+
+    /**
+     * Sets the media position of the next frame to be latched.
+     */
+    public void anchor(int positionMs) {
+        mPendingAnchorMs.set(Math.max(0, positionMs));
+    }
+
+    public void setDuration(int durationMs) {
+        mDurationMs = Math.max(0, durationMs);
+    }
+
+    /**
+     * Forgets the media: position, duration and frame time go back to 0.
+     */
+    public void reset() {
+        mPendingAnchorMs.set(0);
+        mDurationMs = 0;
+        mPositionMs = 0;
+        mFrameTimeNs = 0;
+    }
+
+    /**
+     * Advances the clock to a newly latched frame.
+     */
+    public void onFrameLatched(long timestampNs) {
+        final int anchorMs = mPendingAnchorMs.getAndSet(NO_ANCHOR);
+        if (anchorMs != NO_ANCHOR) {
+            mAnchorPositionMs = anchorMs;
+            mAnchorTimestampNs = timestampNs;
+        } else if (mAnchorTimestampNs < 0 || timestampNs < mAnchorTimestampNs) {
+            mAnchorPositionMs = 0;
+            mAnchorTimestampNs = timestampNs;
+        }
+
+        long positionMs = mAnchorPositionMs + (timestampNs - mAnchorTimestampNs) / 1000000L;
+        final int durationMs = mDurationMs;
+        if (durationMs > 0) {
+            positionMs %= durationMs;
+        }
+        mPositionMs = (int) positionMs;
+        mFrameTimeNs = timestampNs;
+    }
+
+    @Override
+    public int getPositionMs() {
+        return mPositionMs;
+    }
+
+    @Override
+    public int getDurationMs() {
+        return mDurationMs;
+    }
+
+    @Override
+    public long getFrameTimeNs() {
+        return mFrameTimeNs;
+    }
+}
@@ -0,0 +1,160 @@
+package com.oldfilm.render;
+
+import android.os.Handler;
+import android.view.Choreographer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FrameScheduler class.
+ * <p>
+ * Paces rendering to the display's vsync.  Decoded frames only bump a counter; at the next
+ * vsync the render thread latches the newest one and draws once, so decoder bursts do not
+ * turn into frames that never reach the screen.  The scheduler stays idle (no vsync
+ * callbacks) while no frames arrive.
+ */
+public class FrameScheduler implements Choreographer.FrameCallback {
+
+    public interface Callback {
+        /**
+         * Called on the render thread at a vsync with at least one new frame pending.
+         *
+         * @param frameTimeNanos Vsync time, in the {@link System#nanoTime()} time base.
+         * @param pendingFrames Frames queued since the last call; all but the newest are
+         *                      coalesced.
+         */
+        void onVsync(long frameTimeNanos, int pendingFrames);
+    }
+
+    private static final float DEFAULT_REFRESH_RATE = 60.0f;
+
+    private final RenderThread mRenderThread;
+    private final Handler mHandler;
+    private final Callback mCallback;
+    private final long mVsyncPeriodNs;
+
+    private final AtomicInteger mPendingFrames = new AtomicInteger(0);
+    private final AtomicBoolean mVsyncRequested = new AtomicBoolean(false);
+
+    private Choreographer mChoreographer; // render thread only
+    private long mArmTimeNs;
+    private boolean mStopped;
+    private long mLastDroppedFrames;
+
+    // Written by the render thread only, readable from anywhere.
+    private volatile long mDrawnFrames;
+    private volatile long mCoalescedFrames;
+    private volatile long mDroppedFrames;
+
+    public FrameScheduler(RenderThread renderThread, float refreshRate, Callback callback) {
+        mRenderThread = renderThread;
+        mHandler = renderThread.getHandler();
+        mCallback = callback;
+        if (refreshRate <= 0) {
+            refreshRate = DEFAULT_REFRESH_RATE;
+        }
+        mVsyncPeriodNs = (long) (TimeUnit.SECONDS.toNanos(1) / refreshRate);
+    }
+
+    public long getVsyncPeriodNs() {
+        return mVsyncPeriodNs;
+    }
+
+    /**
+     * Signals that the producer queued a new frame.  May be called from any thread.
+     */
+    public void onFrameAvailable() {
+        mPendingFrames.incrementAndGet();
+        requestVsync();
+    }
+
+    /**
+     * Stops delivering vsyncs.  Render thread only.
+     */
+    public void stop() {
+        mStopped = true;
+        if (mChoreographer != null) {
+            mChoreographer.removeFrameCallback(this);
+        }
+        mVsyncRequested.set(false);
+    }
+
+    public long getDrawnFrameCount() {
+        return mDrawnFrames;
+    }
+
+    /**
+     * Returns the number of decoded frames that were skipped because a newer one arrived
+     * before the vsync.
+     */
+    public long getCoalescedFrameCount() {
+        return mCoalescedFrames;
+    }
+
+    /**
+     * Returns the number of vsyncs a pending frame waited beyond the first one.
+     */
+    public long getDroppedFrameCount() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * Returns the vsyncs the frame being drawn waited beyond the first one.  Only meaningful
+     * during {@link Callback#onVsync}.
+     */
+    public long getLastDroppedFrameCount() {
+        return mLastDroppedFrames;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        mVsyncRequested.set(false);
+        if (mStopped) {
+            return;
+        }
+
+        // UI commands are applied at the frame boundary, before the frame that reflects them.
+        mRenderThread.drainCommands();
+
+        final int pending = mPendingFrames.getAndSet(0);
+        if (pending == 0) {
+            return;
+        }
+
+        final long late = frameTimeNanos - mArmTimeNs;
+        mLastDroppedFrames = late > mVsyncPeriodNs ? late / mVsyncPeriodNs - 1 : 0;
+        mDroppedFrames += mLastDroppedFrames;
+        mCoalescedFrames += pending - 1;
+        mDrawnFrames++;
+
+        mCallback.onVsync(frameTimeNanos, pending);
+
+        // Frames that arrived while drawing need another vsync.
+        if (mPendingFrames.get() > 0) {
+            requestVsync();
+        }
+    }
+
+    private void requestVsync() {
+        if (mVsyncRequested.compareAndSet(false, true)) {
+            mHandler.post(mArmRunnable);
+        }
+    }
+
+    private final Runnable mArmRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mStopped) {
+                return;
+            }
+            if (mChoreographer == null) {
+                // Choreographer instances are per looper, so this must run on the render thread.
+                mChoreographer = Choreographer.getInstance();
+            }
+            mArmTimeNs = System.nanoTime();
+            mChoreographer.postFrameCallback(FrameScheduler.this);
+        }
+    };
+}
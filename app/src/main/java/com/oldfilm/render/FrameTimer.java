@@ -0,0 +1,45 @@
+package com.oldfilm.render;
+
+/**
+ * FrameTimer class.
+ * <p>
+ * Accumulates the CPU time spent in {@link VideoRenderer}'s draw, split between frames that
+ * only feed the display and frames that also read pixels back.  A display-only frame has no
+ * CPU-GPU sync point, so its cost should stay well below the readback cost.
+ */
+public class FrameTimer {
+
+    private long mDisplayTotalNs;
+    private int mDisplayFrames;
+
+    private long mReadbackTotalNs;
+    private int mReadbackFrames;
+
+    public void record(long elapsedNs, boolean readback) {
+        if (readback) {
+            mReadbackTotalNs += elapsedNs;
+            mReadbackFrames++;
+        } else {
+            mDisplayTotalNs += elapsedNs;
+            mDisplayFrames++;
+        }
+    }
+
+    /**
+     * Returns the average draw time in nanoseconds, or 0 if no frame of that kind was drawn.
+     */
+    public long getAverageNs(boolean readback) {
+        if (readback) {
+            return mReadbackFrames == 0 ? 0 : mReadbackTotalNs / mReadbackFrames;
+        } else {
+            return mDisplayFrames == 0 ? 0 : mDisplayTotalNs / mDisplayFrames;
+        }
+    }
+
+    public void reset() {
+        mDisplayTotalNs = 0;
+        mDisplayFrames = 0;
+        mReadbackTotalNs = 0;
+        mReadbackFrames = 0;
+    }
+}
@@ -0,0 +1,166 @@
+package com.oldfilm.render;
+
+import android.opengl.GLES20;
+
+import com.oldfilm.gles.GlState;
+import com.oldfilm.gles.GlUtil;
+import com.oldfilm.gles.NoiseTextureBaker;
+import com.oldfilm.gles.Tracer;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * GrainPool class.
+ * <p>
+ * A pool of pre-rendered film-grain frames, cycled at random during playback.  The grain
+ * only changed from frame to frame because of RandomValue; a handful of frames baked with
+ * different values looks the same, and drawing one costs a single texture fetch.
+ * <p>
+ * The frames are generated once per surface size by {@link NoiseTextureBaker#bakeGrainFrame},
+ * one per task on the loader thread, so they become available one by one.  They are kept
+ * under a memory budget: if the full-size frames would not fit, all of them are baked at a
+ * lower resolution instead of baking fewer.
+ * <p>
+ * Render thread only, except for the counters.
+ */
+public class GrainPool {
+
+    public static final int DEFAULT_FRAME_COUNT = 16;
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+
+    private static final int TRACE_FRAME_PIXELS = Tracer.register("GrainPool.framePixels");
+
+    private final SharedContextThread mLoaderThread;
+    private final RenderThread mRenderThread;
+    private final int mFrameCount;
+    private final long mMaxBytes;
+
+    private final ArrayList<Integer> mFrames = new ArrayList<>();
+    private int mSurfaceWidth;
+    private int mSurfaceHeight;
+    // Bumped on every size change; frames of an older generation are dropped on arrival.
+    private int mGeneration;
+    private boolean mIsReleased;
+
+    private volatile long mBytesHeld;
+    private volatile int mFrameWidth;
+    private volatile int mFrameHeight;
+
+    public GrainPool(SharedContextThread loaderThread, RenderThread renderThread) {
+        this(loaderThread, renderThread, DEFAULT_FRAME_COUNT, DEFAULT_MAX_BYTES);
+    }
+
+    public GrainPool(SharedContextThread loaderThread, RenderThread renderThread,
+                     int frameCount, long maxBytes) {
+        mLoaderThread = loaderThread;
+        mRenderThread = renderThread;
+        mFrameCount = frameCount;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Sets the size of the surface the grain is drawn over.  A new size drops the frames and
+     * starts generating new ones.
+     */
+    public void setSurfaceSize(int width, int height) {
+        if (mIsReleased || (width == mSurfaceWidth && height == mSurfaceHeight)
+                || width <= 0 || height <= 0) {
+            return;
+        }
+        mSurfaceWidth = width;
+        mSurfaceHeight = height;
+        deleteFrames();
+        final int generation = ++mGeneration;
+
+        // Scale the frames down, uniformly, until all of them fit in the budget.
+        final double fullBytes = (double) width * height * mFrameCount;
+        final double scale = Math.min(1.0, Math.sqrt(mMaxBytes / fullBytes));
+        final int frameWidth = Math.max(1, (int) (width * scale));
+        final int frameHeight = Math.max(1, (int) (height * scale));
+        mFrameWidth = frameWidth;
+        mFrameHeight = frameHeight;
+        if (Tracer.ENABLED) Tracer.instant(TRACE_FRAME_PIXELS, (long) frameWidth * frameHeight);
+
+        for (int i = 0; i < mFrameCount; i++) {
+            // Spread the frames over RandomValue's range, 0.00 to 0.99.
+            final float randomValue = (i * 100 / mFrameCount) / 100.0f;
+            mLoaderThread.queue(new Runnable() {
+                @Override
+                public void run() {
+                    final int textureId = GlUtil.createLuminanceTexture(
+                            NoiseTextureBaker.bakeGrainFrame(frameWidth, frameHeight, randomValue),
+                            frameWidth, frameHeight, GLES20.GL_CLAMP_TO_EDGE);
+                    // The render thread's context must see the complete texture.
+                    GLES20.glFinish();
+                    mRenderThread.queue(new Runnable() {
+                        @Override
+                        public void run() {
+                            onFrameBaked(generation, textureId, (long) frameWidth * frameHeight);
+                        }
+                    });
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns a random grain frame, or 0 if none is ready yet.
+     */
+    public int pickFrame(Random random) {
+        final int count = mFrames.size();
+        return count > 0 ? mFrames.get(random.nextInt(count)) : 0;
+    }
+
+    /**
+     * Returns the number of frames ready to be drawn.
+     */
+    public int getReadyCount() {
+        return mFrames.size();
+    }
+
+    /**
+     * Returns the GPU memory held by the frames, in bytes.
+     */
+    public long getBytesHeld() {
+        return mBytesHeld;
+    }
+
+    public int getFrameWidth() {
+        return mFrameWidth;
+    }
+
+    public int getFrameHeight() {
+        return mFrameHeight;
+    }
+
+    /**
+     * Deletes the frames.  Frames still being generated are deleted when they arrive.
+     */
+    public void release() {
+        deleteFrames();
+        mIsReleased = true;
+    }
+
+    private void onFrameBaked(int generation, int textureId, long byteSize) {
+        if (mIsReleased || generation != mGeneration) {
+            deleteTexture(textureId);
+            return;
+        }
+        mFrames.add(textureId);
+        mBytesHeld += byteSize;
+    }
+
+    private void deleteFrames() {
+        for (int i = 0; i < mFrames.size(); i++) {
+            deleteTexture(mFrames.get(i));
+        }
+        mFrames.clear();
+        mBytesHeld = 0;
+    }
+
+    private static void deleteTexture(int textureId) {
+        GLES20.glDeleteTextures(1, new int[] { textureId }, 0);
+        GlState.get().onTextureDeleted(textureId);
+    }
+}
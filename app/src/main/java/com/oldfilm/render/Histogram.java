@@ -0,0 +1,150 @@
+package com.oldfilm.render;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram class.
+ * <p>
+ * A log-linear histogram of non-negative longs: every power of two is split into
+ * {@link #SUB_BUCKETS} linear buckets, so a recorded value is known to within 12.5% whatever
+ * its magnitude, in a fixed 300-odd buckets.  Values below SUB_BUCKETS are exact, values
+ * beyond 2^{@link #MAX_EXPONENT} land in the last bucket.
+ * <p>
+ * {@link #record(long)} is lock-free and allocates nothing, so it can be called from the
+ * render thread every frame.  {@link #snapshot()} may be called from any thread; it copies
+ * the buckets without stopping writers, so a snapshot taken during a record may be off by
+ * that one value.
+ */
+public class Histogram {
+
+    public static final int SUB_BUCKET_BITS = 3;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** Largest power of two with buckets of its own: 2^40 ns is about 18 minutes. */
+    public static final int MAX_EXPONENT = 40;
+
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final String mName;
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public Histogram(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Records a value; negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mCounts.incrementAndGet(bucketOf(value));
+        mSum.addAndGet(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    public Snapshot snapshot() {
+        final long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        return new Snapshot(mName, counts, total, mSum.get(), mMax.get());
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        final int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Returns the smallest value that falls in a bucket.
+     */
+    static long lowerBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final int sub = bucket % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * An immutable copy of a histogram.
+     */
+    public static class Snapshot {
+        private final String mName;
+        private final long[] mCounts;
+        private final long mCount;
+        private final long mSum;
+        private final long mMax;
+
+        Snapshot(String name, long[] counts, long count, long sum, long max) {
+            mName = name;
+            mCounts = counts;
+            mCount = count;
+            mSum = sum;
+            mMax = max;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getSum() {
+            return mSum;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public long getMean() {
+            return mCount == 0 ? 0 : mSum / mCount;
+        }
+
+        /**
+         * Returns an estimate of a percentile (0 to 100): the middle of the bucket it falls
+         * in, capped at the largest recorded value.  Returns 0 for an empty histogram.
+         */
+        public long getPercentile(float percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            final float clamped = Math.max(0.0f, Math.min(100.0f, percentile));
+            final long rank = Math.max(1, (long) Math.ceil(clamped / 100.0 * mCount));
+            long seen = 0;
+            for (int i = 0; i < mCounts.length; i++) {
+                seen += mCounts[i];
+                if (seen >= rank) {
+                    final long lower = lowerBoundOf(i);
+                    final long upper = i + 1 < mCounts.length ? lowerBoundOf(i + 1) : mMax + 1;
+                    return Math.min(mMax, lower + (upper - 1 - lower) / 2);
+                }
+            }
+            return mMax;
+        }
+    }
+}
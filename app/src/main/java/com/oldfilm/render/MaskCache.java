@@ -0,0 +1,240 @@
+package com.oldfilm.render;
+
+import android.opengl.GLES20;
+
+import com.oldfilm.gles.GlState;
+import com.oldfilm.gles.GlUtil;
+import com.oldfilm.gles.MaskBaker;
+import com.oldfilm.gles.Tracer;
+
+import java.util.ArrayList;
+
+/**
+ * MaskCache class.
+ * <p>
+ * Holds the vignette and scratch masks baked by {@link MaskBaker} as luminance textures,
+ * keyed by (surface size, vignetting value) and (surface size, scratch seed).  Masks are
+ * kept in least-recently-used order and the oldest ones are deleted once their total size
+ * exceeds the budget; masks used in the current frame are never evicted.
+ * <p>
+ * Vignette masks are small and baked on the spot.  Scratch masks are full size; with a loader
+ * thread they are baked and uploaded there, and {@link #getScratchMask} returns 0 until one
+ * is ready.  Without a loader thread everything is baked on the calling thread.
+ * <p>
+ * Render thread only, except for the counters.
+ */
+public class MaskCache {
+
+    public static final long DEFAULT_MAX_BYTES = 20L * 1024 * 1024;
+
+    private static final int KIND_VIGNETTE = 0;
+    private static final int KIND_SCRATCHES = 1;
+
+    private static final int TRACE_BYTES_HELD = Tracer.register("MaskCache.bytesHeld");
+
+    // Vignetting values are keyed in steps of 1/1000.
+    private static final float VIGNETTE_STEPS = 1000.0f;
+
+    private static class Mask {
+        final int mKind;
+        final int mSurfaceWidth;
+        final int mSurfaceHeight;
+        final int mParam;
+        int mTextureId;     // 0 while baking
+        long mByteSize;
+        long mLastUsedFrame;
+
+        Mask(int kind, int surfaceWidth, int surfaceHeight, int param) {
+            mKind = kind;
+            mSurfaceWidth = surfaceWidth;
+            mSurfaceHeight = surfaceHeight;
+            mParam = param;
+        }
+
+        boolean matches(int kind, int surfaceWidth, int surfaceHeight, int param) {
+            return mKind == kind && mSurfaceWidth == surfaceWidth
+                    && mSurfaceHeight == surfaceHeight && mParam == param;
+        }
+    }
+
+    private final SharedContextThread mLoaderThread;
+    private final RenderThread mRenderThread;
+    private final long mMaxBytes;
+
+    // Least recently used first.
+    private final ArrayList<Mask> mMasks = new ArrayList<>();
+    private long mFrame;
+    private boolean mIsReleased;
+
+    private volatile long mBytesHeld;
+    private volatile int mBakedCount;
+    private volatile int mEvictedCount;
+
+    /**
+     * Creates a cache that bakes on the calling thread.
+     */
+    public MaskCache() {
+        this(null, null, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param loaderThread Thread to bake scratch masks on, or null to bake them on the
+     *                     calling thread.
+     * @param renderThread The thread that uses the cache; required with a loader thread.
+     */
+    public MaskCache(SharedContextThread loaderThread, RenderThread renderThread, long maxBytes) {
+        mLoaderThread = loaderThread;
+        mRenderThread = renderThread;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Starts a new frame; masks returned from here on are protected from eviction until the
+     * next call.
+     */
+    public void beginFrame() {
+        mFrame++;
+    }
+
+    /**
+     * Returns the vignette mask for a surface size and vignetting value, baking it if needed.
+     */
+    public int getVignetteMask(int surfaceWidth, int surfaceHeight, float vignetting) {
+        final int param = Math.round(vignetting * VIGNETTE_STEPS);
+        final Mask cached = find(KIND_VIGNETTE, surfaceWidth, surfaceHeight, param);
+        if (cached != null) {
+            return cached.mTextureId;
+        }
+
+        final int width = MaskBaker.vignetteWidth(surfaceWidth);
+        final int height = MaskBaker.vignetteHeight(surfaceHeight);
+        final Mask mask = add(KIND_VIGNETTE, surfaceWidth, surfaceHeight, param);
+        onMaskBaked(mask, upload(MaskBaker.bakeVignette(width, height, param / VIGNETTE_STEPS),
+                width, height), (long) width * height);
+        return mask.mTextureId;
+    }
+
+    /**
+     * Returns the scratch mask for a surface size and seed (0 to
+     * {@link MaskBaker#SCRATCH_SEEDS} - 1), or 0 while it is being baked.
+     */
+    public int getScratchMask(final int surfaceWidth, final int surfaceHeight, final int seed) {
+        final Mask cached = find(KIND_SCRATCHES, surfaceWidth, surfaceHeight, seed);
+        if (cached != null) {
+            return cached.mTextureId;
+        }
+
+        final Mask mask = add(KIND_SCRATCHES, surfaceWidth, surfaceHeight, seed);
+        final long byteSize = (long) surfaceWidth * surfaceHeight;
+        if (mLoaderThread == null) {
+            onMaskBaked(mask, upload(MaskBaker.bakeScratches(surfaceWidth, surfaceHeight, seed),
+                    surfaceWidth, surfaceHeight), byteSize);
+            return mask.mTextureId;
+        }
+
+        mLoaderThread.queue(new Runnable() {
+            @Override
+            public void run() {
+                final int textureId = upload(
+                        MaskBaker.bakeScratches(surfaceWidth, surfaceHeight, seed),
+                        surfaceWidth, surfaceHeight);
+                // The render thread's context must see the complete texture.
+                GLES20.glFinish();
+                mRenderThread.queue(new Runnable() {
+                    @Override
+                    public void run() {
+                        onMaskBaked(mask, textureId, byteSize);
+                    }
+                });
+            }
+        });
+        return 0;
+    }
+
+    /**
+     * Returns the GPU memory held by the masks, in bytes.
+     */
+    public long getBytesHeld() {
+        return mBytesHeld;
+    }
+
+    public int getBakedCount() {
+        return mBakedCount;
+    }
+
+    public int getEvictedCount() {
+        return mEvictedCount;
+    }
+
+    /**
+     * Deletes every mask.  Masks still being baked are deleted when they arrive.
+     */
+    public void release() {
+        for (int i = mMasks.size() - 1; i >= 0; i--) {
+            if (mMasks.get(i).mTextureId != 0) {
+                evict(i);
+            }
+        }
+        mMasks.clear();
+        mIsReleased = true;
+    }
+
+    private Mask find(int kind, int surfaceWidth, int surfaceHeight, int param) {
+        for (int i = mMasks.size() - 1; i >= 0; i--) {
+            final Mask mask = mMasks.get(i);
+            if (mask.matches(kind, surfaceWidth, surfaceHeight, param)) {
+                // Move to the most recently used end.
+                mMasks.remove(i);
+                mMasks.add(mask);
+                mask.mLastUsedFrame = mFrame;
+                return mask;
+            }
+        }
+        return null;
+    }
+
+    private Mask add(int kind, int surfaceWidth, int surfaceHeight, int param) {
+        final Mask mask = new Mask(kind, surfaceWidth, surfaceHeight, param);
+        mask.mLastUsedFrame = mFrame;
+        mMasks.add(mask);
+        return mask;
+    }
+
+    private void onMaskBaked(Mask mask, int textureId, long byteSize) {
+        if (mIsReleased || !mMasks.contains(mask)) {
+            deleteTexture(textureId);
+            return;
+        }
+        mask.mTextureId = textureId;
+        mask.mByteSize = byteSize;
+        mBytesHeld += byteSize;
+        mBakedCount++;
+        if (Tracer.ENABLED) Tracer.counter(TRACE_BYTES_HELD, mBytesHeld);
+
+        for (int i = 0; i < mMasks.size() && mBytesHeld > mMaxBytes; ) {
+            final Mask oldest = mMasks.get(i);
+            if (oldest.mTextureId != 0 && oldest.mLastUsedFrame != mFrame) {
+                evict(i);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    private void evict(int index) {
+        final Mask mask = mMasks.remove(index);
+        deleteTexture(mask.mTextureId);
+        mBytesHeld -= mask.mByteSize;
+        mEvictedCount++;
+        if (Tracer.ENABLED) Tracer.counter(TRACE_BYTES_HELD, mBytesHeld);
+    }
+
+    private static int upload(byte[] texels, int width, int height) {
+        return GlUtil.createLuminanceTexture(texels, width, height, GLES20.GL_CLAMP_TO_EDGE);
+    }
+
+    private static void deleteTexture(int textureId) {
+        GLES20.glDeleteTextures(1, new int[] { textureId }, 0);
+        GlState.get().onTextureDeleted(textureId);
+    }
+}
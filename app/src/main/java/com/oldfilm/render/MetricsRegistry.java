@@ -0,0 +1,80 @@
+package com.oldfilm.render;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * MetricsRegistry class.
+ * <p>
+ * A set of named {@link Histogram}s.  Histograms are registered up front (registration
+ * allocates) and recorded into from the render thread without locks or allocations; any
+ * thread may poll a {@link Snapshot} of all of them at any time, e.g. to upload percentile
+ * summaries, without blocking the recording side.
+ */
+public class MetricsRegistry {
+
+    private final List<Histogram> mHistograms = new CopyOnWriteArrayList<>();
+
+    /**
+     * Returns the histogram registered under a name, registering it if needed.  Keep the
+     * result rather than looking it up per record.
+     */
+    public synchronized Histogram histogram(String name) {
+        for (Histogram histogram : mHistograms) {
+            if (histogram.getName().equals(name)) {
+                return histogram;
+            }
+        }
+        final Histogram histogram = new Histogram(name);
+        mHistograms.add(histogram);
+        return histogram;
+    }
+
+    /**
+     * Copies every histogram.  May be called from any thread.
+     */
+    public Snapshot snapshot() {
+        final Map<String, Histogram.Snapshot> histograms = new LinkedHashMap<>();
+        for (Histogram histogram : mHistograms) {
+            histograms.put(histogram.getName(), histogram.snapshot());
+        }
+        return new Snapshot(System.nanoTime(), histograms);
+    }
+
+    /**
+     * The state of all histograms at one point in time.
+     */
+    public static class Snapshot {
+        private final long mTimestampNs;
+        private final Map<String, Histogram.Snapshot> mHistograms;
+
+        Snapshot(long timestampNs, Map<String, Histogram.Snapshot> histograms) {
+            mTimestampNs = timestampNs;
+            mHistograms = Collections.unmodifiableMap(histograms);
+        }
+
+        /**
+         * Returns when the snapshot was taken, in the {@link System#nanoTime()} time base.
+         */
+        public long getTimestampNs() {
+            return mTimestampNs;
+        }
+
+        /**
+         * Returns the histograms by name, in registration order.
+         */
+        public Map<String, Histogram.Snapshot> getHistograms() {
+            return mHistograms;
+        }
+
+        /**
+         * Returns a histogram, or null if none is registered under that name.
+         */
+        public Histogram.Snapshot get(String name) {
+            return mHistograms.get(name);
+        }
+    }
+}
@@ -5,16 +5,89 @@ import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
 
 import com.oldfilm.R;
+import com.oldfilm.gles.ColorLutBuilder;
+import com.oldfilm.gles.FullFrameQuad;
+import com.oldfilm.gles.GlState;
 import com.oldfilm.gles.GlUtil;
+import com.oldfilm.gles.MaskBaker;
+import com.oldfilm.gles.NoiseTextureBaker;
+import com.oldfilm.gles.ShaderUtils;
 
 import java.nio.ByteBuffer;
 import java.util.Random;
 
 /**
  * OldFilmDrawer class.
+ * <p>
+ * By default the shader works from baked textures: the grain comes from the simplex noise
+ * baked by {@link NoiseTextureBaker}, the grayscale and sepia steps are one lookup into a
+ * colour LUT from {@link ColorLutBuilder}, and the vignette and scratch lines are masks from a
+ * {@link MaskCache}.  With a {@link GrainPool}, the grain is one of its pre-rendered frames
+ * once they are ready.
+ * <p>
+ * The slider values come from an {@link EffectParams}, which is read once per frame; they may
+ * be set from any thread, and the colour LUT, which only changes with the sepia value, is
+ * rebuilt by the thread that sets it.  Slider uniforms are only uploaded when the values
+ * change.  The procedural shader, which computes everything per pixel, is kept for comparison (see
+ * {@link FillRateBenchmark}).
+ * <p>
+ * The grain, scratch and vignette steps of the baked shader are compiled out while their slider
+ * is at 0: each combination is its own program, from a {@link ShaderVariantCache}.  Until the
+ * leaner program is ready the one with every step draws the same image.
  */
 public class OldFilmDrawer extends BaseDrawer {
 
+    // Steps of the baked shader, as bits of a variant's features.
+    private static final int FEATURE_GRAIN = 1;
+    private static final int FEATURE_SCRATCHES = 1 << 1;
+    private static final int FEATURE_VIGNETTE = 1 << 2;
+    private static final int ALL_FEATURES = FEATURE_GRAIN | FEATURE_SCRATCHES | FEATURE_VIGNETTE;
+
+    /**
+     * A program of the baked shader with some of its steps compiled in.  Locations of the
+     * uniforms of steps left out are -1, which GL ignores.
+     */
+    private static class BakedVariant extends ShaderVariantCache.Variant {
+        final int muMatrixLoc;
+        final int muSTMatrixLoc;
+        final int muNoiseLoc;
+        final int muScratchLoc;
+        final int muRandomLoc;
+        final int muGrainScaleLoc;
+        final int muGrainOffsetLoc;
+        final int muGrainSkewLoc;
+
+        BakedVariant(int features, int programId, FullFrameQuad quad) {
+            super(features, programId, quad);
+            muMatrixLoc = GLES20.glGetUniformLocation(programId, "uMatrix");
+            muSTMatrixLoc = GLES20.glGetUniformLocation(programId, "uSTMatrix");
+            muNoiseLoc = GLES20.glGetUniformLocation(programId, "NoiseValue");
+            muScratchLoc = GLES20.glGetUniformLocation(programId, "ScratchValue");
+            muRandomLoc = GLES20.glGetUniformLocation(programId, "RandomValue");
+            muGrainScaleLoc = GLES20.glGetUniformLocation(programId, "GrainScale");
+            muGrainOffsetLoc = GLES20.glGetUniformLocation(programId, "GrainOffset");
+            muGrainSkewLoc = GLES20.glGetUniformLocation(programId, "GrainSkew");
+
+            // Samplers never change, set them once.
+            GlState.get().useProgram(programId);
+            setSampler(programId, "NoiseTexture", 1);
+            setSampler(programId, "ColourLut", 2);
+            setSampler(programId, "VignetteMask", 3);
+            setSampler(programId, "ScratchMask", 4);
+        }
+
+        boolean has(int feature) {
+            return (mFeatures & feature) != 0;
+        }
+
+        private static void setSampler(int programId, String name, int unit) {
+            final int location = GLES20.glGetUniformLocation(programId, name);
+            if (location >= 0) {
+                GLES20.glUniform1i(location, unit);
+            }
+        }
+    }
+
     private int muSepiaLoc;
     private int muNoiseLoc;
     private int muScratchLoc;
@@ -22,11 +95,24 @@ public class OldFilmDrawer extends BaseDrawer {
     private int muOuterVignettingLoc;
     private int muRandomLoc;
     private int muTimeLapseLoc;
+    private int muGrainScaleLoc;
+    private int muGrainOffsetLoc;
+
+    private final boolean mIsBaked;
+    private int mNoiseTextureId;
+    private int mColorLutTextureId;
+    private ByteBuffer mColorLutBuffer;
+    private MaskCache mMaskCache;
+    private boolean mOwnsMaskCache;
+    private GrainPool mGrainPool;
+    private boolean mIsCheapNoise;
+
+    private BakedVariant mFullVariant;
+    private BakedVariant mLastVariant;
+    private ShaderVariantCache mVariantCache;
 
-    private float mSepiaValue = 0.5f; // 0.0 - 1.0.
-    private float mNoiseValue = 0.5f; // 0.0 - 1.0.
-    private float mScratchValue = 0.5f; // 0.0 - 1.0.
-    private float mVignettingValue = 0.5f; // 0.0 - 1.0.
+    private EffectParams mParams = new EffectParams();
+    private final EffectParams.Snapshot mParamsSnapshot = new EffectParams.Snapshot();
 
     private float mRandomValue = 0.0f;
     private float mTimeLapse = 0.0f;
@@ -35,39 +121,181 @@ public class OldFilmDrawer extends BaseDrawer {
     private Random mTimeLapseRandom = new Random();
 
     public OldFilmDrawer(Context context, int textureID) {
-        super(context, textureID, R.raw.old_film_vertex_shader, R.raw.old_film_fragment_shader);
+        this(context, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, textureID);
+    }
+
+    public OldFilmDrawer(Context context, int textureTarget, int textureID) {
+        this(context, textureTarget, textureID, true);
+    }
+
+    /**
+     * @param baked Whether to use the baked noise, colour LUT and masks instead of computing
+     *              them per pixel.
+     */
+    public OldFilmDrawer(Context context, int textureTarget, int textureID, boolean baked) {
+        super(context, textureTarget, textureID,
+                ShaderUtils.readTextFromRawResource(context, R.raw.old_film_vertex_shader),
+                baked ? bakedFragmentSource(context, ALL_FEATURES)
+                        : ShaderUtils.readTextFromRawResource(context, R.raw.old_film_fragment_shader));
+        mIsBaked = baked;
 
-        muSepiaLoc = GLES20.glGetUniformLocation(mProgramId, "SepiaValue");
-        GlUtil.checkLocation(muSepiaLoc, "SepiaValue");
         muNoiseLoc = GLES20.glGetUniformLocation(mProgramId, "NoiseValue");
         GlUtil.checkLocation(muNoiseLoc, "NoiseValue");
         muScratchLoc = GLES20.glGetUniformLocation(mProgramId, "ScratchValue");
         GlUtil.checkLocation(muScratchLoc, "ScratchValue");
-
-        muInnerVignettingLoc = GLES20.glGetUniformLocation(mProgramId, "InnerVignetting");
-        GlUtil.checkLocation(muInnerVignettingLoc, "InnerVignetting");
-        muOuterVignettingLoc = GLES20.glGetUniformLocation(mProgramId, "OuterVignetting");
-        GlUtil.checkLocation(muOuterVignettingLoc, "OuterVignetting");
         muRandomLoc = GLES20.glGetUniformLocation(mProgramId, "RandomValue");
         GlUtil.checkLocation(muRandomLoc, "RandomValue");
-        muTimeLapseLoc = GLES20.glGetUniformLocation(mProgramId, "TimeLapse");
-        GlUtil.checkLocation(muTimeLapseLoc, "TimeLapse");
+
+        if (baked) {
+            muGrainScaleLoc = GLES20.glGetUniformLocation(mProgramId, "GrainScale");
+            GlUtil.checkLocation(muGrainScaleLoc, "GrainScale");
+            muGrainOffsetLoc = GLES20.glGetUniformLocation(mProgramId, "GrainOffset");
+            GlUtil.checkLocation(muGrainOffsetLoc, "GrainOffset");
+            GlUtil.checkLocation(GLES20.glGetUniformLocation(mProgramId, "GrainSkew"), "GrainSkew");
+            setupBakedTextures();
+            mFullVariant = new BakedVariant(ALL_FEATURES, mProgramId, mQuad);
+            mVariantCache = new ShaderVariantCache(null, null,
+                    ShaderVariantCache.DEFAULT_MAX_VARIANTS, mVariantFactory);
+        } else {
+            muSepiaLoc = GLES20.glGetUniformLocation(mProgramId, "SepiaValue");
+            GlUtil.checkLocation(muSepiaLoc, "SepiaValue");
+            muInnerVignettingLoc = GLES20.glGetUniformLocation(mProgramId, "InnerVignetting");
+            GlUtil.checkLocation(muInnerVignettingLoc, "InnerVignetting");
+            muOuterVignettingLoc = GLES20.glGetUniformLocation(mProgramId, "OuterVignetting");
+            GlUtil.checkLocation(muOuterVignettingLoc, "OuterVignetting");
+            muTimeLapseLoc = GLES20.glGetUniformLocation(mProgramId, "TimeLapse");
+            GlUtil.checkLocation(muTimeLapseLoc, "TimeLapse");
+        }
+    }
+
+    private void setupBakedTextures() {
+        mNoiseTextureId = GlUtil.createLuminanceTexture(NoiseTextureBaker.getGrain(),
+                NoiseTextureBaker.GRAIN_SIZE, NoiseTextureBaker.GRAIN_SIZE,
+                GLES20.GL_REPEAT);
+
+        // Also reused for every upload of the LUT.
+        mColorLutBuffer = ByteBuffer.allocateDirect(ColorLutBuilder.SIZE * ColorLutBuilder.CHANNELS);
+        mColorLutBuffer.put(ColorLutBuilder.build(mParams.get(EffectParams.SEPIA)));
+        mColorLutBuffer.position(0);
+        // Rows of 3 bytes are not 4-byte aligned; there is one row, but say so anyway.
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        mColorLutTextureId = GlUtil.createImageTexture(mColorLutBuffer, ColorLutBuilder.SIZE, 1,
+                GLES20.GL_RGB);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+        GlUtil.checkGlError("createColorLut");
+        GlState.get().invalidateTextures();
+    }
+
+    private static String bakedFragmentSource(Context context, int features) {
+        final String source = ShaderUtils.readTextFromRawResource(context,
+                R.raw.old_film_baked_fragment_shader);
+        final String[] defines = new String[Integer.bitCount(features)];
+        int count = 0;
+        if ((features & FEATURE_GRAIN) != 0) {
+            defines[count++] = "GRAIN";
+        }
+        if ((features & FEATURE_SCRATCHES) != 0) {
+            defines[count++] = "SCRATCHES";
+        }
+        if ((features & FEATURE_VIGNETTE) != 0) {
+            defines[count++] = "VIGNETTE";
+        }
+        return ShaderUtils.withDefines(source, defines);
+    }
+
+    private final ShaderVariantCache.Factory mVariantFactory = new ShaderVariantCache.Factory() {
+        @Override
+        public ShaderVariantCache.Variant create(int features) {
+            final String vertexSource = ShaderUtils.readTextFromRawResource(mContext,
+                    R.raw.old_film_vertex_shader);
+            String fragmentSource = bakedFragmentSource(mContext, features);
+            if (mTextureTarget == GLES20.GL_TEXTURE_2D) {
+                fragmentSource = ShaderUtils.toSampler2D(fragmentSource);
+            }
+            final int programId = ShaderUtils.createProgram(vertexSource, fragmentSource);
+            if (programId == 0) {
+                throw new RuntimeException("Unable to create old film variant 0x"
+                        + Integer.toHexString(features));
+            }
+            return new BakedVariant(features, programId,
+                    new FullFrameQuad(programId, "aPosition", "aTexCoord", false));
+        }
+    };
+
+    /**
+     * Compiles the baked shader's leaner variants on a loader thread rather than the drawing
+     * thread; the drawing thread must be the render thread.  Variants compiled so far are
+     * dropped.
+     */
+    public void setVariantLoader(SharedContextThread loaderThread, RenderThread renderThread) {
+        if (!mIsBaked) {
+            return;
+        }
+        mVariantCache.release();
+        mVariantCache = new ShaderVariantCache(loaderThread, renderThread,
+                ShaderVariantCache.DEFAULT_MAX_VARIANTS, mVariantFactory);
+        mLastVariant = null;
+    }
+
+    /**
+     * Sets the cache the baked shader's vignette and scratch masks come from; it must belong
+     * to the drawing thread.  Without one the drawer creates its own, which bakes on the
+     * drawing thread.
+     */
+    public void setMaskCache(MaskCache maskCache) {
+        if (mOwnsMaskCache) {
+            mMaskCache.release();
+            mOwnsMaskCache = false;
+        }
+        mMaskCache = maskCache;
     }
 
+    /**
+     * Sets the pool the baked shader's grain frames come from, or null to sample the grain
+     * texture.  The pool must belong to the drawing thread and is not released by the drawer.
+     */
+    public void setGrainPool(GrainPool grainPool) {
+        mGrainPool = grainPool;
+    }
+
+    /**
+     * Samples the grain from the small tiling noise texture even when the grain pool has
+     * frames.  It stays in the texture cache, where full-size frames don't, so it is cheaper
+     * on weak GPUs (see {@link QualityGovernor}).
+     */
+    public void setCheapNoise(boolean cheapNoise) {
+        mIsCheapNoise = cheapNoise;
+    }
+
+    /**
+     * Sets where the slider values come from; call it on the drawing thread.  The drawer starts
+     * with its own, at the defaults.
+     */
+    public void setEffectParams(EffectParams params) {
+        mParams = params;
+        mParamsSnapshot.reset();
+    }
+
+    /**
+     * Sets the sepia value.  With the baked shader this rebuilds the colour LUT on the calling
+     * thread.
+     */
     public void setSepiaValue(float sepia) {
-        mSepiaValue = sepia;
+        mParams.set(EffectParams.SEPIA, sepia);
     }
 
     public void setNoiseValue(float noise) {
-        mNoiseValue = noise;
+        mParams.set(EffectParams.NOISE, noise);
     }
 
     public void setScratchValue(float scratch) {
-        mScratchValue = scratch;
+        mParams.set(EffectParams.SCRATCH, scratch);
     }
 
     public void setVignettingValue(float vignetting) {
-        mVignettingValue = vignetting;
+        mParams.set(EffectParams.VIGNETTING, vignetting);
     }
 
     @Override
@@ -77,48 +305,184 @@ public class OldFilmDrawer extends BaseDrawer {
         }
 
         mRandomValue = (float) mRandom.nextInt(100) / 100f;
+        final boolean paramsChanged = mParams.read(mParamsSnapshot);
+        final EffectParams.Snapshot params = mParamsSnapshot;
+
+        final GlState state = GlState.get();
+        if (mIsBaked) {
+            drawBaked(state, params, paramsChanged);
+            return;
+        }
+
+        state.useProgram(mProgramId);
+
+        state.setBlendEnabled(true);
+        state.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+
         mTimeLapse = 1000 * ((float) mTimeLapseRandom.nextInt(100) / 50f);
+        state.activeTexture(GLES20.GL_TEXTURE0);
+        state.bindTexture(mTextureTarget, mTextureID);
+
+        // Slider values are only uploaded when a new snapshot was picked up.
+        if (paramsChanged) {
+            final float vignetting = params.get(EffectParams.VIGNETTING);
+            state.uniform1f(muNoiseLoc, params.get(EffectParams.NOISE));
+            state.uniform1f(muSepiaLoc, params.get(EffectParams.SEPIA));
+            state.uniform1f(muInnerVignettingLoc, 1.0f - vignetting);
+            state.uniform1f(muOuterVignettingLoc, 1.4f - vignetting);
+        }
+        state.uniform1f(muScratchLoc, params.get(EffectParams.SCRATCH));
+        state.uniform1f(muRandomLoc, mRandomValue);
+        state.uniform1f(muTimeLapseLoc, mTimeLapse);
+
+        state.uniformMatrix4fv(uMatrixLocation, mProjectionMatrix, 0);
+        state.uniformMatrix4fv(uSTMMatrixHandle, getTextureMatrix(), 0);
+
+        mQuad.draw();
+    }
+
+    private void drawBaked(GlState state, EffectParams.Snapshot params, boolean paramsChanged) {
+        final BakedVariant variant = selectVariant(params);
+        state.useProgram(variant.getProgramId());
 
-        GLES20.glUseProgram(mProgramId);
+        state.setBlendEnabled(true);
+        state.blendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
 
-        GLES20.glEnable(GLES20.GL_BLEND);
-        GLES20.glBlendFunc(GLES20.GL_ONE, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        final float scratchValue = bindBakedTextures(state, params, variant);
+        state.activeTexture(GLES20.GL_TEXTURE0);
+        state.bindTexture(mTextureTarget, mTextureID);
 
-//        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-//        GLES20.glBindTexture(GLES20.GL_SAMPLER_2D, mTextureID);
-//        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, mTextureID);
+        // Slider values are only uploaded when a new snapshot was picked up, or to a program
+        // that hasn't seen it.
+        if (paramsChanged || variant != mLastVariant) {
+            state.uniform1f(variant.muNoiseLoc, params.get(EffectParams.NOISE));
+            mLastVariant = variant;
+        }
+        state.uniform1f(variant.muScratchLoc, scratchValue);
+        state.uniform1f(variant.muRandomLoc, mRandomValue);
 
-        GLES20.glUniform1f(muSepiaLoc, mSepiaValue);
-        GlUtil.checkGlError("glUniform1f - mSepiaValue");
-        GLES20.glUniform1f(muNoiseLoc, mNoiseValue);
-        GlUtil.checkGlError("glUniform1f - mNoiseValue");
-        GLES20.glUniform1f(muScratchLoc, mScratchValue);
-        GlUtil.checkGlError("glUniform1f - mScratchValue");
+        state.uniformMatrix4fv(variant.muMatrixLoc, mProjectionMatrix, 0);
+        state.uniformMatrix4fv(variant.muSTMatrixLoc, getTextureMatrix(), 0);
 
-        GLES20.glUniform1f(muInnerVignettingLoc, 1.0f - mVignettingValue);
-        GlUtil.checkGlError("glUniform1f - mInnerVignetting");
-        GLES20.glUniform1f(muOuterVignettingLoc, 1.4f - mVignettingValue);
-        GlUtil.checkGlError("glUniform1f - mOuterVignetting");
-        GLES20.glUniform1f(muRandomLoc, mRandomValue);
-        GlUtil.checkGlError("glUniform1f - mRandomValue");
-        GLES20.glUniform1f(muTimeLapseLoc, mTimeLapse);
-        GlUtil.checkGlError("glUniform1f - mTimeLapse");
+        variant.getQuad().draw();
+    }
 
-        GLES20.glUniformMatrix4fv(uMatrixLocation, 1, false, sProjectionMatrix, 0);
-        GLES20.glUniformMatrix4fv(uSTMMatrixHandle, 1, false, mSTMatrix, 0);
+    /**
+     * Returns the leanest variant for the slider values, or the full one while it compiles.
+     */
+    private BakedVariant selectVariant(EffectParams.Snapshot params) {
+        int features = 0;
+        if (params.get(EffectParams.NOISE) > 0.0f) {
+            features |= FEATURE_GRAIN;
+        }
+        if (params.get(EffectParams.SCRATCH) > 0.0f) {
+            features |= FEATURE_SCRATCHES;
+        }
+        if (params.get(EffectParams.VIGNETTING) > 0.0f) {
+            features |= FEATURE_VIGNETTE;
+        }
+        if (features == ALL_FEATURES) {
+            return mFullVariant;
+        }
+        final BakedVariant variant = (BakedVariant) mVariantCache.get(features);
+        return variant != null ? variant : mFullVariant;
+    }
 
-        mVertexBuffer.position(0);
-        GLES20.glEnableVertexAttribArray(aPositionLocation);
-        GLES20.glVertexAttribPointer(aPositionLocation, 3, GLES20.GL_FLOAT, false,
-                12, mVertexBuffer);
+    /**
+     * Binds the grain, LUT and masks the variant samples, uploading a new LUT if there is one.
+     * Returns the scratch value to draw with: 0 while this frame's scratch mask is not ready.
+     * <p>
+     * Grain frames and masks are made for the surface size, so none are asked for until
+     * {@link #updateProjection} has set it; until then the projection is empty and nothing
+     * is drawn anyway.
+     */
+    private float bindBakedTextures(GlState state, EffectParams.Snapshot params,
+                                    BakedVariant variant) {
+        if (mMaskCache == null) {
+            mMaskCache = new MaskCache();
+            mOwnsMaskCache = true;
+        }
+        final MaskCache masks = mMaskCache;
+        final int maskWidth = mScreenWidth;
+        final int maskHeight = mScreenHeight;
+        final boolean hasSurfaceSize = maskWidth > 0 && maskHeight > 0;
+        masks.beginFrame();
 
-        mTextureVertexBuffer.position(0);
-        GLES20.glEnableVertexAttribArray(aTextureCoordLocation);
-        GLES20.glVertexAttribPointer(aTextureCoordLocation, 2, GLES20.GL_FLOAT, false, 8, mTextureVertexBuffer);
+        if (variant.has(FEATURE_GRAIN)) {
+            int grainFrame = 0;
+            if (mGrainPool != null && !mIsCheapNoise && hasSurfaceSize) {
+                mGrainPool.setSurfaceSize(maskWidth, maskHeight);
+                grainFrame = mGrainPool.pickFrame(mRandom);
+            }
+            state.activeTexture(GLES20.GL_TEXTURE1);
+            if (grainFrame != 0) {
+                state.bindTexture(GLES20.GL_TEXTURE_2D, grainFrame);
+                state.uniform1f(variant.muGrainScaleLoc, 1.0f);
+                state.uniform1f(variant.muGrainSkewLoc, 0.0f);
+                state.uniform1f(variant.muGrainOffsetLoc, 0.0f);
+            } else {
+                state.bindTexture(GLES20.GL_TEXTURE_2D, mNoiseTextureId);
+                state.uniform1f(variant.muGrainScaleLoc, NoiseTextureBaker.grainScale(mRandomValue));
+                state.uniform1f(variant.muGrainSkewLoc, NoiseTextureBaker.GRAIN_SKEW);
+                state.uniform1f(variant.muGrainOffsetLoc, mRandomValue);
+            }
+        }
+        state.activeTexture(GLES20.GL_TEXTURE2);
+        state.bindTexture(GLES20.GL_TEXTURE_2D, mColorLutTextureId);
+        if (params.consumeColorLutChange()) {
+            uploadColorLut(params.getColorLut());
+        }
+        if (variant.has(FEATURE_VIGNETTE)) {
+            state.activeTexture(GLES20.GL_TEXTURE3);
+            state.bindTexture(GLES20.GL_TEXTURE_2D, hasSurfaceSize
+                    ? masks.getVignetteMask(maskWidth, maskHeight, params.get(EffectParams.VIGNETTING))
+                    : 0);
+        }
+        final float scratchValue = params.get(EffectParams.SCRATCH);
+        if (!variant.has(FEATURE_SCRATCHES) || scratchValue <= 0.0f || !hasSurfaceSize) {
+            return 0.0f;
+        }
+        final int scratchMask = masks.getScratchMask(maskWidth, maskHeight,
+                mTimeLapseRandom.nextInt(MaskBaker.SCRATCH_SEEDS));
+        if (scratchMask == 0) {
+            return 0.0f;
+        }
+        state.activeTexture(GLES20.GL_TEXTURE4);
+        state.bindTexture(GLES20.GL_TEXTURE_2D, scratchMask);
+        return scratchValue;
+    }
 
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+    /**
+     * Replaces the LUT's contents; the LUT texture must be bound to the active unit.
+     */
+    private void uploadColorLut(byte[] lut) {
+        mColorLutBuffer.clear();
+        mColorLutBuffer.put(lut);
+        mColorLutBuffer.position(0);
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, ColorLutBuilder.SIZE, 1,
+                GLES20.GL_RGB, GLES20.GL_UNSIGNED_BYTE, mColorLutBuffer);
+        GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+        GlUtil.checkGlError("uploadColorLut");
+    }
 
-        GLES20.glDisable(GLES20.GL_BLEND);
-        GLES20.glUseProgram(0);
+    @Override
+    public void destroy() {
+        super.destroy();
+        if (mVariantCache != null) {
+            mVariantCache.release();
+            mVariantCache = null;
+        }
+        mLastVariant = null;
+        if (mIsBaked && mNoiseTextureId != 0) {
+            int[] textures = new int[] { mNoiseTextureId, mColorLutTextureId };
+            GLES20.glDeleteTextures(2, textures, 0);
+            final GlState state = GlState.get();
+            state.onTextureDeleted(mNoiseTextureId);
+            state.onTextureDeleted(mColorLutTextureId);
+            mNoiseTextureId = 0;
+            mColorLutTextureId = 0;
+        }
+        setMaskCache(null);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,25 @@
+package com.oldfilm.render;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PixelConsumer interface.
+ * <p>
+ * Receives RGBA frames read back from the GPU (snapshots, analysis, export).  Pixels are only
+ * read back while at least one consumer is registered with {@link VideoRenderer}.
+ */
+public interface PixelConsumer {
+
+    /**
+     * Called on the render thread with the pixels of the latest frame.
+     * <p>
+     * The buffer is owned by the renderer and is only valid for the duration of the call;
+     * copy out anything that must outlive it.
+     *
+     * @param rgba Tightly packed RGBA pixels, bottom row first.
+     * @param width Frame width, in pixels.
+     * @param height Frame height, in pixels.
+     * @param timestampNs SurfaceTexture timestamp of the frame, in nanoseconds.
+     */
+    void onPixelsAvailable(ByteBuffer rgba, int width, int height, long timestampNs);
+}
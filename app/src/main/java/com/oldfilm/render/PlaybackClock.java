@@ -0,0 +1,26 @@
+package com.oldfilm.render;
+
+/**
+ * PlaybackClock interface.
+ * <p>
+ * Where playback is, as of the frame on screen.  Reading it is cheap and never calls into the
+ * media server, so the render loop and the HUD can poll it every frame.
+ */
+public interface PlaybackClock {
+
+    /**
+     * Returns the media position of the latest latched frame, in milliseconds.
+     */
+    int getPositionMs();
+
+    /**
+     * Returns the media duration in milliseconds, or 0 while unknown.
+     */
+    int getDurationMs();
+
+    /**
+     * Returns the SurfaceTexture timestamp of the latest latched frame, in nanoseconds, or 0
+     * before the first frame.
+     */
+    long getFrameTimeNs();
+}
@@ -0,0 +1,161 @@
+package com.oldfilm.render;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * QualityGovernor class.
+ * <p>
+ * Trades effect quality for frame rate on GPUs that can't keep up.  Every drawn frame is
+ * reported as on time or late (it missed the vsync it was aimed at); frames are judged in
+ * windows of {@link #WINDOW_FRAMES}.  A window with {@link #DOWNGRADE_LATE_FRAMES} or more late
+ * frames drops one tier:
+ * <ol>
+ *     <li>{@link #TIER_FULL}: the effect at full resolution.</li>
+ *     <li>{@link #TIER_THREE_QUARTER}: rendered at 0.75 scale and upscaled bilinearly.</li>
+ *     <li>{@link #TIER_HALF}: at 0.5 scale.</li>
+ *     <li>{@link #TIER_HALF_CHEAP_NOISE}: at 0.5 scale, with the grain sampled from the small
+ *     tiling noise texture instead of full-size pre-rendered frames.</li>
+ * </ol>
+ * Going back up takes windows without a single late frame for a hold time.  If a raised tier
+ * is dropped again within the hold, the hold doubles, up to {@link #MAX_UPGRADE_HOLD_NS}, so a
+ * tier the GPU can't sustain is not retried every few seconds; once a raised tier outlives
+ * the hold, it returns to {@link #UPGRADE_HOLD_NS}.  Windows with a few late frames change
+ * nothing.
+ * <p>
+ * {@link #onFrame(long, boolean)} and the listener run on the render thread; the tier may be
+ * read from any thread.
+ */
+public class QualityGovernor {
+
+    public static final int TIER_FULL = 0;
+    public static final int TIER_THREE_QUARTER = 1;
+    public static final int TIER_HALF = 2;
+    public static final int TIER_HALF_CHEAP_NOISE = 3;
+
+    static final int WINDOW_FRAMES = 30;
+    static final int DOWNGRADE_LATE_FRAMES = 6;
+    static final long UPGRADE_HOLD_NS = TimeUnit.SECONDS.toNanos(5);
+    static final long MAX_UPGRADE_HOLD_NS = TimeUnit.SECONDS.toNanos(80);
+
+    private static final float[] SCALES = { 1.0f, 0.75f, 0.5f, 0.5f };
+
+    public interface Listener {
+        /**
+         * Called on the render thread when the tier changes.
+         */
+        void onTierChanged(int oldTier, int newTier);
+    }
+
+    private volatile int mTier = TIER_FULL;
+    private volatile boolean mEnabled = true;
+    private volatile Listener mListener;
+
+    // Render thread only.
+    private int mWindowFrames;
+    private int mWindowLateFrames;
+    private long mCleanSinceNs = -1;
+    private long mRaisedAtNs = -1;
+    private long mUpgradeHoldNs = UPGRADE_HOLD_NS;
+
+    /**
+     * Returns the scale the effect is rendered at in a tier.
+     */
+    public static float getScale(int tier) {
+        return SCALES[tier];
+    }
+
+    /**
+     * Returns whether a tier uses the cheaper grain.
+     */
+    public static boolean isCheapNoise(int tier) {
+        return tier >= TIER_HALF_CHEAP_NOISE;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Enables or disables the governor.  Disabled, it stays at {@link #TIER_FULL}; the change
+     * takes effect on the next frame.
+     */
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public int getTier() {
+        return mTier;
+    }
+
+    /**
+     * Reports a drawn frame.
+     *
+     * @param nowNs Current time, in the {@link System#nanoTime()} time base.
+     * @param late Whether the frame missed its vsync.
+     */
+    public void onFrame(long nowNs, boolean late) {
+        if (!mEnabled) {
+            if (mTier != TIER_FULL) {
+                setTier(TIER_FULL);
+            }
+            reset();
+            return;
+        }
+
+        mWindowFrames++;
+        if (late) {
+            mWindowLateFrames++;
+        }
+        if (mWindowFrames < WINDOW_FRAMES) {
+            return;
+        }
+        final int lateFrames = mWindowLateFrames;
+        mWindowFrames = 0;
+        mWindowLateFrames = 0;
+
+        if (mRaisedAtNs >= 0 && nowNs - mRaisedAtNs >= mUpgradeHoldNs) {
+            // The last raise held up.
+            mRaisedAtNs = -1;
+            mUpgradeHoldNs = UPGRADE_HOLD_NS;
+        }
+
+        if (lateFrames >= DOWNGRADE_LATE_FRAMES) {
+            mCleanSinceNs = -1;
+            if (mTier < TIER_HALF_CHEAP_NOISE) {
+                if (mRaisedAtNs >= 0) {
+                    mUpgradeHoldNs = Math.min(MAX_UPGRADE_HOLD_NS, mUpgradeHoldNs * 2);
+                    mRaisedAtNs = -1;
+                }
+                setTier(mTier + 1);
+            }
+        } else if (lateFrames == 0) {
+            if (mCleanSinceNs < 0) {
+                mCleanSinceNs = nowNs;
+            } else if (mTier > TIER_FULL && nowNs - mCleanSinceNs >= mUpgradeHoldNs) {
+                mCleanSinceNs = -1;
+                mRaisedAtNs = nowNs;
+                setTier(mTier - 1);
+            }
+        } else {
+            mCleanSinceNs = -1;
+        }
+    }
+
+    /**
+     * Forgets the frames seen so far, e.g. after a pause in drawing; keeps the tier.
+     */
+    public void reset() {
+        mWindowFrames = 0;
+        mWindowLateFrames = 0;
+        mCleanSinceNs = -1;
+    }
+
+    private void setTier(int tier) {
+        final int oldTier = mTier;
+        mTier = tier;
+        final Listener listener = mListener;
+        if (listener != null) {
+            listener.onTierChanged(oldTier, tier);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.oldfilm.render;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.oldfilm.gles.LogUtils;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * RenderThread class.
+ * <p>
+ * The thread that owns a renderer's EGL context.  Other threads never touch GL state; they
+ * queue commands, which are lock-free on the caller's side and are drained in order at the
+ * next frame boundary (see {@link FrameScheduler}), or sooner if the thread is idle.
+ */
+public class RenderThread extends HandlerThread {
+
+    private final ConcurrentLinkedQueue<Runnable> mCommands = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mWakeScheduled = new AtomicBoolean(false);
+
+    private volatile Handler mHandler;
+
+    public RenderThread(String name) {
+        super(name, Process.THREAD_PRIORITY_DISPLAY);
+    }
+
+    @Override
+    public synchronized void start() {
+        super.start();
+        // getLooper() blocks until the looper is prepared.
+        mHandler = new Handler(getLooper());
+    }
+
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    /**
+     * Queues a command to run on the render thread before the next frame.  May be called from
+     * any thread.
+     */
+    public void queue(Runnable command) {
+        mCommands.offer(command);
+        wake();
+    }
+
+    /**
+     * Runs a task on the render thread and waits for it to finish.  Meant for surface
+     * lifecycle events, which must be complete before the callback returns; never use it
+     * per frame.
+     */
+    public void runAndWait(final Runnable task) {
+        if (Thread.currentThread() == this) {
+            drainCommands();
+            task.run();
+            return;
+        }
+        if (!isAlive()) {
+            LogUtils.w("RenderThread.runAndWait() - thread is not running");
+            return;
+        }
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        queue(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    latch.countDown();
+                }
+            }
+        });
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs every queued command, in submission order.  Render thread only.
+     */
+    public void drainCommands() {
+        Runnable command;
+        while ((command = mCommands.poll()) != null) {
+            command.run();
+        }
+    }
+
+    /**
+     * Stops the looper once already posted work is done and waits for the thread to exit.
+     */
+    public void quitAndJoin() {
+        quitSafely();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void wake() {
+        if (mHandler != null && mWakeScheduled.compareAndSet(false, true)) {
+            mHandler.post(mWakeRunnable);
+        }
+    }
+
+    private final Runnable mWakeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mWakeScheduled.set(false);
+            drainCommands();
+        }
+    };
+}
@@ -0,0 +1,188 @@
+package com.oldfilm.render;
+
+import android.opengl.GLES20;
+
+import com.oldfilm.gles.FullFrameQuad;
+import com.oldfilm.gles.GlState;
+import com.oldfilm.gles.Tracer;
+
+import java.util.ArrayList;
+
+/**
+ * ShaderVariantCache class.
+ * <p>
+ * Holds permutations of one shader, keyed by a bitmask of the features compiled in; the
+ * {@link Factory} turns a bitmask into a linked program, typically by defining a macro per set
+ * bit.  Variants are built lazily: with a loader thread {@link #get(int)} returns null until
+ * the requested one has been compiled there, and the caller keeps drawing with a variant it
+ * already has.  Without a loader thread variants are built on the calling thread.
+ * <p>
+ * At most a fixed number of variants are kept, in least-recently-used order; the variant
+ * returned last is never evicted.  Render thread only, except for the counters.
+ */
+public class ShaderVariantCache {
+
+    public static final int DEFAULT_MAX_VARIANTS = 4;
+
+    private static final int TRACE_EVICTED = Tracer.register("ShaderVariantCache.evicted");
+
+    /**
+     * Builds the variant for a feature bitmask; called on the loader thread, or on the render
+     * thread without one.
+     */
+    public interface Factory {
+        Variant create(int features);
+    }
+
+    /**
+     * A linked program and its quad.  Subclasses add the uniform locations they look up.
+     */
+    public static class Variant {
+        protected final int mFeatures;
+        protected final int mProgramId;
+        protected final FullFrameQuad mQuad;
+
+        protected Variant(int features, int programId, FullFrameQuad quad) {
+            mFeatures = features;
+            mProgramId = programId;
+            mQuad = quad;
+        }
+
+        public int getFeatures() {
+            return mFeatures;
+        }
+
+        public int getProgramId() {
+            return mProgramId;
+        }
+
+        public FullFrameQuad getQuad() {
+            return mQuad;
+        }
+
+        /**
+         * Deletes the program; render thread only, its {@link GlState} must forget the name.
+         */
+        protected void release() {
+            mQuad.release();
+            GLES20.glDeleteProgram(mProgramId);
+            GlState.get().onProgramDeleted(mProgramId);
+        }
+    }
+
+    private static class Entry {
+        final int mFeatures;
+        Variant mVariant;   // null while compiling
+
+        Entry(int features) {
+            mFeatures = features;
+        }
+    }
+
+    private final SharedContextThread mLoaderThread;
+    private final RenderThread mRenderThread;
+    private final int mMaxVariants;
+    private final Factory mFactory;
+
+    // Least recently used first.
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+    private boolean mIsReleased;
+
+    private volatile int mCompiledCount;
+    private volatile int mEvictedCount;
+
+    /**
+     * @param loaderThread Thread to compile variants on, or null to compile them on the
+     *                     calling thread.
+     * @param renderThread The thread that uses the cache; required with a loader thread.
+     * @param maxVariants  How many variants to keep, at least 2.
+     */
+    public ShaderVariantCache(SharedContextThread loaderThread, RenderThread renderThread,
+                              int maxVariants, Factory factory) {
+        mLoaderThread = loaderThread;
+        mRenderThread = renderThread;
+        mMaxVariants = Math.max(2, maxVariants);
+        mFactory = factory;
+    }
+
+    /**
+     * Returns the variant for a feature bitmask, or null while it is being compiled.
+     */
+    public Variant get(final int features) {
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            final Entry entry = mEntries.get(i);
+            if (entry.mFeatures == features) {
+                // Move to the most recently used end.
+                mEntries.remove(i);
+                mEntries.add(entry);
+                return entry.mVariant;
+            }
+        }
+
+        final Entry entry = new Entry(features);
+        mEntries.add(entry);
+        if (mLoaderThread == null) {
+            onVariantCompiled(entry, mFactory.create(features));
+            return entry.mVariant;
+        }
+
+        mLoaderThread.queue(new Runnable() {
+            @Override
+            public void run() {
+                final Variant variant = mFactory.create(features);
+                // The render thread's context must see a complete program.
+                GLES20.glFinish();
+                mRenderThread.queue(new Runnable() {
+                    @Override
+                    public void run() {
+                        onVariantCompiled(entry, variant);
+                    }
+                });
+            }
+        });
+        return null;
+    }
+
+    public int getCompiledCount() {
+        return mCompiledCount;
+    }
+
+    public int getEvictedCount() {
+        return mEvictedCount;
+    }
+
+    /**
+     * Deletes every variant.  Variants still being compiled are deleted when they arrive.
+     */
+    public void release() {
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            if (mEntries.get(i).mVariant != null) {
+                mEntries.get(i).mVariant.release();
+            }
+        }
+        mEntries.clear();
+        mIsReleased = true;
+    }
+
+    private void onVariantCompiled(Entry entry, Variant variant) {
+        if (mIsReleased || !mEntries.contains(entry)) {
+            variant.release();
+            return;
+        }
+        entry.mVariant = variant;
+        mCompiledCount++;
+
+        // The most recently used entry is the one being drawn with, or about to be.
+        for (int i = 0; i < mEntries.size() - 1 && mEntries.size() > mMaxVariants; ) {
+            final Entry oldest = mEntries.get(i);
+            if (oldest.mVariant != null) {
+                mEntries.remove(i);
+                oldest.mVariant.release();
+                mEvictedCount++;
+                if (Tracer.ENABLED) Tracer.instant(TRACE_EVICTED, oldest.mFeatures);
+            } else {
+                i++;
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.oldfilm.render;
+
+import android.opengl.GLES20;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.oldfilm.gles.EglCore;
+import com.oldfilm.gles.LogUtils;
+import com.oldfilm.gles.OffscreenSurface;
+
+/**
+ * SharedContextThread class.
+ * <p>
+ * A background thread with its own EGL context, shared with a renderer's, for work that
+ * creates GL objects without drawing: compiling and linking programs, uploading textures.
+ * Each task is followed by a glFinish(), so whatever it created is complete before the
+ * renderer is told about it.  Objects must be handed over to the render thread explicitly,
+ * e.g. through {@link RenderThread#queue(Runnable)}.
+ * <p>
+ * If the shared context can't be created, tasks run on the render thread instead.
+ */
+public class SharedContextThread extends HandlerThread {
+
+    private final EglCore mSharedEglCore;
+    private final RenderThread mFallbackThread;
+
+    private volatile Handler mHandler;
+
+    // Loader thread only.
+    private EglCore mEglCore;
+    private OffscreenSurface mOffscreenSurface;
+    private volatile boolean mIsFallback;
+
+    public SharedContextThread(String name, EglCore sharedEglCore, RenderThread fallbackThread) {
+        super(name, Process.THREAD_PRIORITY_BACKGROUND);
+        mSharedEglCore = sharedEglCore;
+        mFallbackThread = fallbackThread;
+    }
+
+    @Override
+    public synchronized void start() {
+        super.start();
+        mHandler = new Handler(getLooper());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mEglCore = new EglCore(mSharedEglCore.getEGLContext(), EglCore.FLAG_TRY_GLES3);
+                    // Some drivers refuse to make a context current without a surface.
+                    mOffscreenSurface = new OffscreenSurface(mEglCore, 1, 1);
+                    mOffscreenSurface.makeCurrent();
+                } catch (RuntimeException e) {
+                    LogUtils.w("SharedContextThread - no shared context, using the render thread: "
+                            + e.getMessage());
+                    releaseEgl();
+                    mIsFallback = true;
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs a task with the shared context current.  May be called from any thread.
+     */
+    public void queue(final Runnable task) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mIsFallback) {
+                    mFallbackThread.queue(task);
+                    return;
+                }
+                task.run();
+                GLES20.glFinish();
+            }
+        });
+    }
+
+    /**
+     * Releases the context once queued tasks are done and waits for the thread to exit.
+     */
+    public void quitAndJoin() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                releaseEgl();
+            }
+        });
+        quitSafely();
+        try {
+            join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void releaseEgl() {
+        if (mOffscreenSurface != null) {
+            mOffscreenSurface.release();
+            mOffscreenSurface = null;
+        }
+        if (mEglCore != null) {
+            mEglCore.release();
+            mEglCore = null;
+        }
+    }
+}
@@ -6,19 +6,32 @@ import android.graphics.SurfaceTexture;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.opengl.GLES20;
+import android.view.Display;
 import android.view.Gravity;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 import android.widget.FrameLayout;
 
+import com.oldfilm.gles.AsyncPixelReader;
 import com.oldfilm.gles.EglCore;
 import com.oldfilm.gles.WindowSurface;
+import com.oldfilm.gles.GlState;
 import com.oldfilm.gles.GlUtil;
+import com.oldfilm.gles.GpuTimer;
 import com.oldfilm.gles.LogUtils;
+import com.oldfilm.gles.OffscreenSurface;
+import com.oldfilm.gles.PixelBufferPool;
+import com.oldfilm.gles.ProgramCache;
+import com.oldfilm.gles.RenderTarget;
+import com.oldfilm.gles.RenderTargetPool;
+import com.oldfilm.gles.Tracer;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * VideoRenderer class.
@@ -31,19 +44,44 @@ public class VideoRenderer implements MediaPlayer.OnVideoSizeChangedListener,
         MediaPlayer.OnCompletionListener,
 		MediaPlayer.OnSeekCompleteListener {
 
-    private static final Object sLock = new Object();
+    /** GPU timer name of the two-pass mode's offscreen pass. */
+    public static final String OFFSCREEN_STAGE = "offscreen";
+
+    /** Time from a decoded frame's arrival to the vsync it is presented at, in nanoseconds. */
+    public static final String METRIC_DECODE_TO_PRESENT_NS = "decode_to_present_ns";
+    /** CPU time of a draw, in nanoseconds. */
+    public static final String METRIC_DRAW_CPU_NS = "draw_cpu_ns";
+    /** Per drawn frame: decoded frames skipped because a newer one arrived first. */
+    public static final String METRIC_COALESCED_FRAMES = "coalesced_frames";
+    /** Per drawn frame: vsyncs it waited beyond the first one. */
+    public static final String METRIC_DROPPED_FRAMES = "dropped_frames";
+    /** Per late frame, i.e. one that was not swapped by its target vsync: by how much, in ns. */
+    public static final String METRIC_LATE_FRAME_NS = "late_frame_ns";
+
+    private static final int TRACE_DRAW = Tracer.register("VideoRenderer.draw");
+    private static final int TRACE_PENDING_FRAMES = Tracer.register("pendingFrames");
+    private static final int TRACE_BUFFERING = Tracer.register("bufferingPercent");
+    private static final int TRACE_FIRST_FRAME = Tracer.register("firstFrameLatencyNs");
 
     private Context mContext;
 
     private SurfaceView mSurfaceView;
     private SurfaceHolder mSurfaceHolder;
+    private volatile RenderThread mRenderThread;
+    private volatile FrameScheduler mFrameScheduler;
+    private SharedContextThread mLoaderThread;
     private EglCore mEglCore;
     private WindowSurface mWindowSurface;
+    // Keeps the context current while the window surface is gone, see setWarmSuspendEnabled().
+    private OffscreenSurface mSuspendSurface;
+    private volatile boolean mIsWarmSuspendEnabled = true;
+    private boolean mIsSuspended = false; // UI thread
+    private boolean mResumePlayback = false;
 
     private SurfaceTexture mSurfaceTexture;
     private MediaPlayer mMediaPlayer;
 
-    private boolean mIsDestroy = false;
+    private volatile boolean mIsDestroy = false;
 
     private int mSurfaceWidth;
     private int mSurfaceHeight;
@@ -53,17 +91,55 @@ public class VideoRenderer implements MediaPlayer.OnVideoSizeChangedListener,
     private OffscreenDrawer mOffscreenDrawer;
     private OldFilmDrawer mEffectDrawer;
     private DirectDrawer mDirectDrawer;
-    private boolean mIsEffectEnabled = true;
+    private DirectDrawer mUpscaleDrawer; // copies a scaled-down effect to the window
+    private volatile RenderTargetPool mRenderTargetPool;
+    private MaskCache mMaskCache;
+    private volatile GrainPool mGrainPool;
+    private volatile EffectGraph mEffectGraph;
+    private volatile boolean mIsEffectEnabled = true;
+    private volatile boolean mIsSinglePass = true;
+    // Slider values; set from the UI thread, read by the effect drawer once per frame.
+    private final EffectParams mEffectParams = new EffectParams();
+
+    // Set on the render thread once every program has been loaded.  Until then, commands are
+    // held back in mDeferredCommands.
+    private volatile boolean mIsPipelineReady = false;
+    private final List<Runnable> mDeferredCommands = new ArrayList<>();
+    private boolean mHasLatchedFrame = false;
+
+    private long mSurfaceCreatedNs;
+    private volatile long mFirstFrameLatencyNs;
 
     private boolean mIsPrepared = false;
+    // Frame time and media position, so drawing and the HUD never call into the media server.
+    private final FrameClock mClock = new FrameClock();
 
-    private int mFramebuffer;
-    private int mOffscreenTextureID;
+    private RenderTarget mOffscreenTarget;
     private int mTextureID;
 
-    private ByteBuffer mRGBABuffer;
+    // Synchronous read backs (GLES2) go into a direct buffer leased from the pool, swapped for
+    // one of the new size when the surface is resized.
+    private final PixelBufferPool mPixelBufferPool = new PixelBufferPool();
+    private PixelBufferPool.Lease mReadbackLease;
     private int mVideoWidth;
     private int mVideoHeight;
+    private int mContentWidth;  // render thread copy of the video size
+    private int mContentHeight;
+    private int mRotationDegrees; // render thread
+
+    private final List<PixelConsumer> mPixelConsumers = new CopyOnWriteArrayList<>();
+    private AsyncPixelReader mAsyncPixelReader;
+    private final FrameTimer mFrameTimer = new FrameTimer();
+    private final QualityGovernor mQualityGovernor = new QualityGovernor();
+    private final MetricsRegistry mMetrics = new MetricsRegistry();
+    private final Histogram mDecodeToPresentNs = mMetrics.histogram(METRIC_DECODE_TO_PRESENT_NS);
+    private final Histogram mDrawCpuNs = mMetrics.histogram(METRIC_DRAW_CPU_NS);
+    private final Histogram mCoalescedFrames = mMetrics.histogram(METRIC_COALESCED_FRAMES);
+    private final Histogram mDroppedFrames = mMetrics.histogram(METRIC_DROPPED_FRAMES);
+    private final Histogram mLateFrameNs = mMetrics.histogram(METRIC_LATE_FRAME_NS);
+    private volatile long mFrameAvailableNs;
+    private volatile GlState mGlState;
+    private volatile GpuTimer mGpuTimer;
 
     public VideoRenderer(Context context, SurfaceView surfaceView) {
         mContext = context;
@@ -75,6 +151,7 @@ public class VideoRenderer implements MediaPlayer.OnVideoSizeChangedListener,
     public void play() {
         if (mMediaPlayer != null && mIsPrepared) {
             mMediaPlayer.start();
+            mClock.anchor(mMediaPlayer.getCurrentPosition());
         }
     }
 
@@ -102,23 +179,43 @@ public class VideoRenderer implements MediaPlayer.OnVideoSizeChangedListener,
         return false;
     }
 
+    /**
+     * Releases the GL pipeline and the player.  With warm suspend enabled, the surface going
+     * away no longer does, so call this when the renderer is done with.
+     */
     public void destroy() {
+        mIsSuspended = false;
         releaseGl();
         releasePlayer();
     }
 
+    /**
+     * Selects what happens when the window surface is destroyed (app switch, screen off).
+     * With warm suspend, the default, the player is paused and the EGL context, programs,
+     * baked textures and pooled targets are kept on a 1x1 pbuffer; a new window surface is
+     * attached to them and shows the last frame right away.  Otherwise everything is released
+     * and rebuilt from scratch.
+     */
+    public void setWarmSuspendEnabled(boolean enabled) {
+        mIsWarmSuspendEnabled = enabled;
+    }
+
+    /**
+     * Returns the position of the frame on screen in milliseconds, see {@link #getClock()}.
+     */
     public int getCurrentPosition() {
-        if (mMediaPlayer != null && mIsPrepared) {
-            return mMediaPlayer.getCurrentPosition();
-        }
-        return 0;
+        return mClock.getPositionMs();
     }
 
+    /**
+     * Returns the duration in milliseconds, read when the player was prepared, or 0.
+     */
     public int getDuration() {
-        if (mMediaPlayer != null && mIsPrepared) {
-            return mMediaPlayer.getDuration();
-        }
-        return 0;
+        return mClock.getDurationMs();
+    }
+
+    public PlaybackClock getClock() {
+        return mClock;
     }
 
     public String getUrl() {
@@ -129,64 +226,366 @@ public class VideoRenderer implements MediaPlayer.OnVideoSizeChangedListener,
         return mIsEffectEnabled;
     }
 
-    public void enableEffect(boolean isEffectEnabled) {
+    public void enableEffect(final boolean isEffectEnabled) {
         mIsEffectEnabled = isEffectEnabled;
-        if (mIsEffectEnabled) {
-            mEffectDrawer.startRender();
-            mDirectDrawer.stopRender();
-        } else {
-            mEffectDrawer.stopRender();
-            mDirectDrawer.startRender();
-        }
+        queueGlCommand(new Runnable() {
+            @Override
+            public void run() {
+                if (isEffectEnabled) {
+                    mEffectDrawer.startRender();
+                    mDirectDrawer.stopRender();
+                } else {
+                    mEffectDrawer.stopRender();
+                    mDirectDrawer.startRender();
+                }
+            }
+        });
+    }
+
+    public boolean isSinglePass() {
+        return mIsSinglePass;
+    }
+
+    /**
+     * Selects single-pass rendering (the default), where the effect samples the decoder's
+     * external texture directly, or the legacy two-pass path, which first renders a rotated
+     * copy into an offscreen framebuffer.  Pixel consumers receive the composed frame in
+     * single-pass mode and the rotated offscreen copy in two-pass mode.
+     */
+    public void setSinglePass(boolean singlePass) {
+        mIsSinglePass = singlePass;
     }
 
+    /**
+     * Rotates the video by a multiple of 90 degrees.  The rotation is folded into the texture
+     * transform, so it costs nothing extra per frame; a quarter turn also swaps the video's
+     * width and height when it is fitted to the surface.
+     */
+    public void setRotation(final int degrees) {
+        queueGlCommand(new Runnable() {
+            @Override
+            public void run() {
+                mRotationDegrees = degrees;
+                mDirectDrawer.setTextureRotation(degrees);
+                mEffectDrawer.setTextureRotation(degrees);
+                updateProjection(mDirectDrawer);
+                updateProjection(mEffectDrawer);
+            }
+        });
+    }
+
+    /**
+     * Sets the sepia value, 0.0 - 1.0.  The colour LUT is rebuilt on the calling thread, so the
+     * render thread only has to upload it.
+     */
     public void setSepiaValue(float sepia) {
-        mEffectDrawer.setSepiaValue(sepia);
+        mEffectParams.set(EffectParams.SEPIA, sepia);
     }
 
     public void setNoiseValue(float noise) {
-        mEffectDrawer.setNoiseValue(noise);
+        mEffectParams.set(EffectParams.NOISE, noise);
     }
 
     public void setScratchValue(float scratch) {
-        mEffectDrawer.setScratchValue(scratch);
+        mEffectParams.set(EffectParams.SCRATCH, scratch);
     }
 
     public void setVignettingValue(float vignetting) {
-        mEffectDrawer.setVignettingValue(vignetting);
+        mEffectParams.set(EffectParams.VIGNETTING, vignetting);
+    }
+
+    /**
+     * Appends a post-processing stage after the old-film (or pass-through) source.  The drawer
+     * is created on the render thread and must sample GL_TEXTURE_2D.
+     */
+    public void addEffectStage(final String name, final EffectGraph.StageFactory factory) {
+        queueGlCommand(new Runnable() {
+            @Override
+            public void run() {
+                mEffectGraph.addStage(name, factory.create(mContext));
+            }
+        });
+    }
+
+    public void removeEffectStage(final String name) {
+        queueGlCommand(new Runnable() {
+            @Override
+            public void run() {
+                mEffectGraph.removeStage(name);
+            }
+        });
+    }
+
+    /**
+     * Enables or disables a stage.  Disabled stages are skipped entirely, including their
+     * intermediate render target.
+     */
+    public void setEffectStageEnabled(final String name, final boolean enabled) {
+        queueGlCommand(new Runnable() {
+            @Override
+            public void run() {
+                EffectGraph.Stage stage = mEffectGraph.getStage(name);
+                if (stage != null) {
+                    stage.setEnabled(enabled);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the average CPU time spent issuing a stage, in nanoseconds, or 0 if there is no
+     * such stage.  {@link EffectGraph#SOURCE_STAGE} names the old-film / pass-through stage.
+     */
+    public long getEffectStageCostNs(String name) {
+        final EffectGraph effectGraph = mEffectGraph;
+        if (effectGraph == null) {
+            return 0;
+        }
+        EffectGraph.Stage stage = effectGraph.getStage(name);
+        return stage != null ? stage.getAverageCpuTimeNs() : 0;
+    }
+
+    /**
+     * Registers a consumer for read-back frames.  Pixels are only read back from the GPU while
+     * at least one consumer is registered.
+     */
+    public void addPixelConsumer(PixelConsumer consumer) {
+        if (consumer != null && !mPixelConsumers.contains(consumer)) {
+            mPixelConsumers.add(consumer);
+        }
+    }
+
+    public void removePixelConsumer(PixelConsumer consumer) {
+        mPixelConsumers.remove(consumer);
+    }
+
+    /**
+     * Returns the average CPU time of a draw, in nanoseconds, for display-only frames or for
+     * frames that were also read back.
+     */
+    public long getAverageFrameTimeNs(boolean withReadback) {
+        return mFrameTimer.getAverageNs(withReadback);
+    }
+
+    /**
+     * Returns the number of decoded frames replaced by a newer one before they were drawn.
+     */
+    public long getCoalescedFrameCount() {
+        final FrameScheduler frameScheduler = mFrameScheduler;
+        return frameScheduler != null ? frameScheduler.getCoalescedFrameCount() : 0;
+    }
+
+    /**
+     * Returns the number of vsyncs missed while a frame was waiting to be drawn.
+     */
+    public long getDroppedFrameCount() {
+        final FrameScheduler frameScheduler = mFrameScheduler;
+        return frameScheduler != null ? frameScheduler.getDroppedFrameCount() : 0;
+    }
+
+    /**
+     * Returns the time from surfaceCreated to the first frame on screen, in nanoseconds, or 0
+     * if no frame has been drawn yet.
+     */
+    public long getFirstFrameLatencyNs() {
+        return mFirstFrameLatencyNs;
+    }
+
+    /**
+     * Returns the number of state changes and uniform uploads sent to the driver by the
+     * render thread.
+     */
+    public long getIssuedGlCallCount() {
+        final GlState glState = mGlState;
+        return glState != null ? glState.getIssuedCount() : 0;
+    }
+
+    /**
+     * Returns the number of state changes and uniform uploads dropped as redundant.
+     */
+    public long getSuppressedGlCallCount() {
+        final GlState glState = mGlState;
+        return glState != null ? glState.getSuppressedCount() : 0;
+    }
+
+    /**
+     * Returns the GPU memory held by pooled render targets, in bytes.
+     */
+    public long getRenderTargetBytes() {
+        final RenderTargetPool pool = mRenderTargetPool;
+        return pool != null ? pool.getBytesHeld() : 0;
+    }
+
+    /**
+     * Returns the GPU memory held by the pre-rendered grain frames, in bytes.
+     */
+    public long getGrainPoolBytes() {
+        final GrainPool grainPool = mGrainPool;
+        return grainPool != null ? grainPool.getBytesHeld() : 0;
+    }
+
+    /**
+     * Enables or disables adaptive quality (on by default): while the effect misses frame
+     * deadlines, it is rendered at a lower resolution and with cheaper grain, see
+     * {@link QualityGovernor}.
+     */
+    public void setAdaptiveQualityEnabled(boolean enabled) {
+        mQualityGovernor.setEnabled(enabled);
+    }
+
+    /**
+     * Sets a listener for quality tier changes, called on the render thread, or null.
+     */
+    public void setQualityListener(QualityGovernor.Listener listener) {
+        mQualityGovernor.setListener(listener);
+    }
+
+    /**
+     * Returns the current quality tier, one of the QualityGovernor.TIER_* constants.
+     */
+    public int getQualityTier() {
+        return mQualityGovernor.getTier();
+    }
+
+    /**
+     * Returns the pool synchronous read backs take their pixel buffers from; its allocation
+     * count stays flat once every surface size in use has been seen.
+     */
+    public PixelBufferPool getPixelBufferPool() {
+        return mPixelBufferPool;
+    }
+
+    /**
+     * Returns the frame metrics: the METRIC_* histograms.  Poll
+     * {@link MetricsRegistry#snapshot()} from any thread.
+     */
+    public MetricsRegistry getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Returns whether GPU stage times are measured: one of {@link GpuTimer#STATUS_UNSUPPORTED},
+     * {@link GpuTimer#STATUS_ACTIVE} or {@link GpuTimer#STATUS_DISJOINT}.
+     */
+    public int getGpuTimerStatus() {
+        final GpuTimer gpuTimer = mGpuTimer;
+        return gpuTimer != null ? gpuTimer.getStatus() : GpuTimer.STATUS_UNSUPPORTED;
+    }
+
+    /**
+     * Returns the number of times GPU times in flight were dropped because of a disjoint event,
+     * e.g. a GPU frequency change.
+     */
+    public int getGpuTimerDisjointCount() {
+        final GpuTimer gpuTimer = mGpuTimer;
+        return gpuTimer != null ? gpuTimer.getDisjointCount() : 0;
+    }
+
+    /**
+     * Returns the number of GPU time samples skipped because the GPU was too far behind.
+     */
+    public int getGpuTimerSkippedCount() {
+        final GpuTimer gpuTimer = mGpuTimer;
+        return gpuTimer != null ? gpuTimer.getSkippedCount() : 0;
+    }
+
+    /**
+     * Returns the names of the stages with GPU times: {@link #OFFSCREEN_STAGE} in two-pass
+     * mode, {@link EffectGraph#SOURCE_STAGE} and the post stages.
+     */
+    public String[] getGpuStageNames() {
+        final GpuTimer gpuTimer = mGpuTimer;
+        return gpuTimer != null ? gpuTimer.getStageNames() : new String[0];
+    }
+
+    /**
+     * Returns a percentile (0 to 100) of a stage's recent GPU times, in nanoseconds, or -1 if
+     * there is none, e.g. because the GPU can't measure them.
+     */
+    public long getGpuTimePercentileNs(String stage, float percentile) {
+        final GpuTimer gpuTimer = mGpuTimer;
+        return gpuTimer != null ? gpuTimer.getPercentileNs(stage, percentile) : -1;
+    }
+
+    /**
+     * Measures the fill rate of the procedural and the baked old-film shader at the
+     * current surface size.  The callback runs on the render thread.
+     */
+    public void measureNoiseFillRate(final FillRateBenchmark.Callback callback) {
+        queueGlCommand(new Runnable() {
+            @Override
+            public void run() {
+                FillRateBenchmark.compareNoise(mContext, mTextureID, mRenderTargetPool,
+                        mSurfaceWidth, mSurfaceHeight, callback);
+            }
+        });
     }
 
     @Override
-    public void onVideoSizeChanged(MediaPlayer mp, int width, int height) {
+    public void onVideoSizeChanged(MediaPlayer mp, final int width, final int height) {
         LogUtils.d("VideoRenderer.onVideoSizeChanged() - width = "+ width + " ,height = " + height);
 
         mVideoWidth = width;
         mVideoHeight = height;
+        updateSurfaceSize(true);
+    }
+
+    /**
+     * Derives the drawn area from the video and window sizes and hands it to the render
+     * thread.  UI thread only.
+     *
+     * @param updateLayout Whether to re-layout the view for portrait videos.  A resize that
+     *                     came from the layout itself must not trigger another one.
+     */
+    private void updateSurfaceSize(boolean updateLayout) {
+        final int width = mVideoWidth;
+        final int height = mVideoHeight;
+        if (width <= 0 || height <= 0) {
+            return;
+        }
 
+        final int surfaceWidth;
+        final int surfaceHeight;
         if (width < height) {
             //portrait video
-            mSurfaceHeight = mWindowHeight;
-            float ratioHeiht = (float) mSurfaceHeight / (float) mVideoHeight;
-            mSurfaceWidth = (int) (ratioHeiht * mVideoWidth);
-            ((VideoView) mSurfaceView).setAspectWithWidthHeight((float) mSurfaceWidth / (float) mSurfaceHeight);
-            FrameLayout.LayoutParams lp = new FrameLayout.LayoutParams(FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT);
-            lp.gravity = Gravity.CENTER_HORIZONTAL;
-            mSurfaceView.setLayoutParams(lp);
+            surfaceHeight = mWindowHeight;
+            float ratioHeiht = (float) surfaceHeight / (float) height;
+            surfaceWidth = (int) (ratioHeiht * width);
+            if (updateLayout) {
+                ((VideoView) mSurfaceView).setAspectWithWidthHeight((float) surfaceWidth / (float) surfaceHeight);
+                FrameLayout.LayoutParams lp = new FrameLayout.LayoutParams(FrameLayout.LayoutParams.MATCH_PARENT, FrameLayout.LayoutParams.MATCH_PARENT);
+                lp.gravity = Gravity.CENTER_HORIZONTAL;
+                mSurfaceView.setLayoutParams(lp);
+            }
         } else {
-            mSurfaceWidth = mWindowWidth;
-            mSurfaceHeight = mWindowHeight;
+            surfaceWidth = mWindowWidth;
+            surfaceHeight = mWindowHeight;
         }
 
-        mDirectDrawer.updateProjection(mSurfaceWidth, mSurfaceHeight, width, height);
-        mEffectDrawer.updateProjection(mSurfaceWidth, mSurfaceHeight, width, height);
-        if (mRGBABuffer == null) {
-            mRGBABuffer = ByteBuffer.allocate(mSurfaceWidth * mSurfaceHeight * 4);
+        // Not deferred: the first frame needs the size.  Drawers that are still loading pick
+        // it up when they arrive.
+        final RenderThread renderThread = mRenderThread;
+        if (renderThread == null) {
+            return;
         }
+        renderThread.queue(new Runnable() {
+            @Override
+            public void run() {
+                mSurfaceWidth = surfaceWidth;
+                mSurfaceHeight = surfaceHeight;
+                mContentWidth = width;
+                mContentHeight = height;
+
+                updateProjection(mDirectDrawer);
+                updateProjection(mEffectDrawer);
+                mEffectGraph.setSize(mSurfaceWidth, mSurfaceHeight);
+            }
+        });
     }
 
     @Override
     public void onBufferingUpdate(MediaPlayer mediaPlayer, int extra) {
-        LogUtils.v("VideoRenderer.onBufferingUpdate() - extra = " + extra);
+        if (Tracer.ENABLED) Tracer.counter(TRACE_BUFFERING, extra);
     }
 
     @Override
@@ -209,6 +608,8 @@ public class VideoRenderer implements MediaPlayer.OnVideoSizeChangedListener,
     @Override
     public void onPrepared(MediaPlayer mediaPlayer) {
         LogUtils.d("VideoRenderer.onPrepared()");
+        mClock.setDuration(mediaPlayer.getDuration());
+        mClock.anchor(mediaPlayer.getCurrentPosition());
         mediaPlayer.start();
         mIsPrepared = true;
     }
@@ -217,81 +618,474 @@ public class VideoRenderer implements MediaPlayer.OnVideoSizeChangedListener,
 
         @Override
         public void surfaceDestroyed(SurfaceHolder holder) {
+            if (mIsWarmSuspendEnabled && mRenderThread != null && !mIsDestroy) {
+                suspend();
+                return;
+            }
+            mIsSuspended = false;
             releaseGl();
             releasePlayer();
         }
 
         @Override
-        public void surfaceCreated(SurfaceHolder holder) {
-            if (mWindowSurface == null) {
-                Surface surface = holder.getSurface();
-                mEglCore = new EglCore(null, 0);
-                mWindowSurface = new WindowSurface(mEglCore, surface, false);
-                mWindowSurface.makeCurrent();
+        public void surfaceCreated(final SurfaceHolder holder) {
+            if (mRenderThread != null) {
+                if (mIsSuspended) {
+                    resume(holder);
+                }
+                return;
+            }
 
-                // Create and configure the SurfaceTexture, which will receive frames from the
-                // camera.  We set the textured rect's program to render from it.
-                mTextureID = GlUtil.createTextureID();
-                mSurfaceTexture = new SurfaceTexture(mTextureID);
-                mSurfaceTexture.setOnFrameAvailableListener(mOnFrameListener);
+            mSurfaceCreatedNs = System.nanoTime();
+            mFirstFrameLatencyNs = 0;
+            mIsDestroy = false;
+
+            // Preparation runs on the player's own thread while the GL pipeline comes up.
+            createPlayer();
+
+            mRenderThread = new RenderThread("VideoRenderer");
+            mRenderThread.start();
+            mFrameScheduler = new FrameScheduler(mRenderThread, getRefreshRate(), mVsyncCallback);
+            mRenderThread.runAndWait(new Runnable() {
+                @Override
+                public void run() {
+                    setupGl(holder);
+                }
+            });
+            attachPlayerSurface();
+
+            // Programs compile on a shared context while frames start to arrive.
+            mLoaderThread = new SharedContextThread("VideoRenderer-loader", mEglCore, mRenderThread);
+            mLoaderThread.start();
+
+            // Scratch masks and grain frames are baked on the loader thread too, after the
+            // programs.  They reach the render thread before any drawer does.
+            final MaskCache maskCache = new MaskCache(mLoaderThread, mRenderThread,
+                    MaskCache.DEFAULT_MAX_BYTES);
+            final GrainPool grainPool = new GrainPool(mLoaderThread, mRenderThread);
+            mRenderThread.queue(new Runnable() {
+                @Override
+                public void run() {
+                    mMaskCache = maskCache;
+                    mGrainPool = grainPool;
+                }
+            });
+            mLoaderThread.queue(mLoadPrograms);
+        }
+
+        @Override
+        public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            mWindowWidth = width;
+            mWindowHeight = height;
+            // Rotations and multi-window resizes change the drawn area; targets follow it.
+            updateSurfaceSize(false);
+        }
+    };
 
-                setupFramebuffer(holder.getSurfaceFrame().width(),
-                        holder.getSurfaceFrame().height());
+    /**
+     * Pauses the player and moves the context onto a pbuffer, keeping everything else.  The
+     * window surface must be released before surfaceDestroyed() returns.
+     */
+    private void suspend() {
+        LogUtils.d("VideoRenderer.suspend()");
+        mIsSuspended = true;
+        mResumePlayback = isPlaying();
+        pause();
+
+        mRenderThread.runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                mSuspendSurface = new OffscreenSurface(mEglCore, 1, 1);
+                mSuspendSurface.makeCurrent();
+                mWindowSurface.release();
+                mWindowSurface = null;
+            }
+        });
+    }
 
-                mOffscreenDrawer = new OffscreenDrawer(mContext, mTextureID);
+    /**
+     * Attaches a new window surface to the suspended pipeline and draws the last frame on it.
+     */
+    private void resume(final SurfaceHolder holder) {
+        LogUtils.d("VideoRenderer.resume()");
+        mIsSuspended = false;
+        mSurfaceCreatedNs = System.nanoTime();
+        mFirstFrameLatencyNs = 0;
+
+        mRenderThread.runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                mWindowSurface = new WindowSurface(mEglCore, holder.getSurface(), false);
+                mWindowSurface.makeCurrent();
+                mSuspendSurface.release();
+                mSuspendSurface = null;
+                // The frames before the suspend say nothing about the ones after it.
+                mQualityGovernor.reset();
+                if (mHasLatchedFrame && getSourceDrawer() != null) {
+                    draw(System.nanoTime(), 0);
+                }
+            }
+        });
 
-                mDirectDrawer = new DirectDrawer(mContext, mOffscreenTextureID);
+        if (mResumePlayback) {
+            play();
+        }
+    }
 
-                mEffectDrawer = new OldFilmDrawer(mContext, mOffscreenTextureID);
-                mEffectDrawer.startRender();
+    private void setupGl(SurfaceHolder holder) {
+        if (mWindowSurface == null) {
+            Surface surface = holder.getSurface();
+            mEglCore = new EglCore(null, EglCore.FLAG_TRY_GLES3);
+            mWindowSurface = new WindowSurface(mEglCore, surface, false);
+            mWindowSurface.makeCurrent();
+            mGlState = GlState.get();
 
-                // Create and prepare media player.
-                createPlayer();
+            // On GLES3 read backs go through pixel-pack buffers and never stall, GLES2
+            // keeps the synchronous glReadPixels path.
+            if (AsyncPixelReader.isSupported(mEglCore)) {
+                mAsyncPixelReader = new AsyncPixelReader(AsyncPixelReader.DEFAULT_BUFFER_COUNT);
             }
+
+            // Create and configure the SurfaceTexture, which will receive frames from the
+            // camera.  We set the textured rect's program to render from it.
+            mTextureID = GlUtil.createTextureID();
+            mSurfaceTexture = new SurfaceTexture(mTextureID);
+            mSurfaceTexture.setOnFrameAvailableListener(mOnFrameListener);
+
+            // The drawers are created by mLoadPrograms.
+            mRenderTargetPool = new RenderTargetPool();
+            mEffectGraph = new EffectGraph(mRenderTargetPool);
+            mGpuTimer = new GpuTimer(mEglCore);
+            mEffectGraph.setGpuTimer(mGpuTimer);
         }
+    }
 
+    /**
+     * Builds both source drawers on the loader thread, the one that is displayed first.  Both
+     * sample the external texture directly, the offscreen pass (and its render target) is only
+     * set up if two-pass mode is requested.
+     */
+    private final Runnable mLoadPrograms = new Runnable() {
         @Override
-        public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
-            mWindowWidth = width;
-            mWindowHeight = height;
-            // Use full window.
-            GLES20.glViewport(0, 0, mSurfaceWidth, mSurfaceHeight);
+        public void run() {
+            final RenderThread renderThread = mRenderThread;
+            if (mIsDestroy || renderThread == null) {
+                return;
+            }
+
+            // Programs created from here on are stored as binaries and loaded from disk on
+            // the next start (GLES3 only).
+            ProgramCache.install(mContext, mEglCore);
+
+            final boolean effectFirst = mIsEffectEnabled;
+            for (int i = 0; i < 2 && !mIsDestroy; i++) {
+                final BaseDrawer drawer = (i == 0) == effectFirst
+                        ? new OldFilmDrawer(mContext, mTextureID)
+                        : new DirectDrawer(mContext, mTextureID);
+                // The render thread's context must see a complete program.
+                GLES20.glFinish();
+                renderThread.queue(new Runnable() {
+                    @Override
+                    public void run() {
+                        onDrawerLoaded(drawer);
+                    }
+                });
+            }
+
+            // Ready before the quality governor first scales the effect down.
+            if (!mIsDestroy) {
+                final DirectDrawer upscaleDrawer =
+                        new DirectDrawer(mContext, GLES20.GL_TEXTURE_2D, 0);
+                GLES20.glFinish();
+                renderThread.queue(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mIsDestroy) {
+                            return;
+                        }
+                        mUpscaleDrawer = upscaleDrawer;
+                        mUpscaleDrawer.startRender();
+                        mEffectGraph.setUpscaleDrawer(mUpscaleDrawer);
+                    }
+                });
+            }
         }
     };
 
+    private void onDrawerLoaded(BaseDrawer drawer) {
+        if (mIsDestroy) {
+            return;
+        }
+
+        if (drawer instanceof OldFilmDrawer) {
+            mEffectDrawer = (OldFilmDrawer) drawer;
+            mEffectDrawer.setEffectParams(mEffectParams);
+            mEffectDrawer.setMaskCache(mMaskCache);
+            mEffectDrawer.setGrainPool(mGrainPool);
+            mEffectDrawer.setVariantLoader(mLoaderThread, mRenderThread);
+        } else {
+            mDirectDrawer = (DirectDrawer) drawer;
+        }
+        if ((drawer == mEffectDrawer) == mIsEffectEnabled) {
+            drawer.startRender();
+        }
+        drawer.setTextureRotation(mRotationDegrees);
+        updateProjection(drawer);
+
+        if (mEffectDrawer != null && mDirectDrawer != null) {
+            mIsPipelineReady = true;
+            for (int i = 0; i < mDeferredCommands.size(); i++) {
+                mDeferredCommands.get(i).run();
+            }
+            mDeferredCommands.clear();
+        }
+
+        // A frame may have been latched while no program could draw it.
+        if (mFirstFrameLatencyNs == 0 && mHasLatchedFrame && getSourceDrawer() != null
+                && mWindowSurface != null) {
+            draw(System.nanoTime(), 0);
+        }
+    }
+
+    /**
+     * Fits the video to the surface in a source drawer, once both sizes are known.  The video
+     * is drawn rotated, so a quarter turn swaps its sides.
+     */
+    private void updateProjection(BaseDrawer drawer) {
+        if (drawer == null || mContentWidth <= 0 || mContentHeight <= 0) {
+            return;
+        }
+        final boolean quarterTurn = mRotationDegrees % 180 != 0;
+        drawer.updateProjection(mSurfaceWidth, mSurfaceHeight,
+                quarterTurn ? mContentHeight : mContentWidth,
+                quarterTurn ? mContentWidth : mContentHeight);
+    }
+
+    private BaseDrawer getSourceDrawer() {
+        return mIsEffectEnabled ? mEffectDrawer : mDirectDrawer;
+    }
+
+    private void setupOffscreenPass() {
+        if (mOffscreenDrawer == null) {
+            mOffscreenDrawer = new OffscreenDrawer(mContext, mTextureID);
+        }
+
+        // Follow the drawn area; a mis-sized target goes back to the pool, where it is either
+        // reused by a later resize back or evicted.
+        if (mOffscreenTarget != null && (mOffscreenTarget.getWidth() != mSurfaceWidth
+                || mOffscreenTarget.getHeight() != mSurfaceHeight)) {
+            mRenderTargetPool.release(mOffscreenTarget);
+            mOffscreenTarget = null;
+        }
+        if (mOffscreenTarget == null) {
+            mOffscreenTarget = mRenderTargetPool.acquire(mSurfaceWidth, mSurfaceHeight);
+        }
+    }
+
+    /**
+     * Queues a command for the render thread.  Commands issued before the GL pipeline exists
+     * are dropped, there is nothing for them to act on yet; commands issued while programs are
+     * still loading run, in order, once they are.
+     */
+    private void queueGlCommand(final Runnable command) {
+        final RenderThread renderThread = mRenderThread;
+        if (renderThread == null) {
+            return;
+        }
+        if (mIsPipelineReady) {
+            renderThread.queue(command);
+            return;
+        }
+        renderThread.queue(new Runnable() {
+            @Override
+            public void run() {
+                if (mIsPipelineReady) {
+                    command.run();
+                } else {
+                    mDeferredCommands.add(command);
+                }
+            }
+        });
+    }
+
     private SurfaceTexture.OnFrameAvailableListener mOnFrameListener = new SurfaceTexture.OnFrameAvailableListener() {
         @Override
         public void onFrameAvailable(SurfaceTexture surfaceTexture) {
             if (mIsDestroy) return;
 
-            GLES20.glViewport(0, 0, mSurfaceWidth, mSurfaceHeight);
-            draw();
+            mFrameAvailableNs = System.nanoTime();
+            final FrameScheduler frameScheduler = mFrameScheduler;
+            if (frameScheduler != null) {
+                frameScheduler.onFrameAvailable();
+            }
         }
     };
 
+    private FrameScheduler.Callback mVsyncCallback = new FrameScheduler.Callback() {
+        @Override
+        public void onVsync(long frameTimeNanos, int pendingFrames) {
+            if (mIsDestroy) return;
 
-    private void draw() {
-        synchronized (sLock) {
-            mSurfaceTexture.updateTexImage();
-            mWindowSurface.makeCurrent();
+            if (mWindowSurface == null) {
+                // Suspended: keep the queue drained so the newest frame is ready on resume.
+                latchFrames(frameTimeNanos, pendingFrames);
+                return;
+            }
+            draw(frameTimeNanos, pendingFrames);
+        }
+    };
 
-            GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
-            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+    private float getRefreshRate() {
+        Display display = mSurfaceView.getDisplay();
+        return display != null ? display.getRefreshRate() : 0;
+    }
 
-            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
-            mRGBABuffer.rewind();
-            mOffscreenDrawer.draw(mRGBABuffer, mSurfaceWidth, mSurfaceHeight);
+    private void draw(long frameTimeNanos, int pendingFrames) {
+        if (Tracer.ENABLED) {
+            Tracer.begin(TRACE_DRAW);
+            Tracer.counter(TRACE_PENDING_FRAMES, pendingFrames);
+        }
+        try {
+            drawFrame(frameTimeNanos, pendingFrames);
+        } finally {
+            if (Tracer.ENABLED) Tracer.end(TRACE_DRAW);
+        }
+    }
+
+    private void drawFrame(long frameTimeNanos, int pendingFrames) {
+        final long startNs = System.nanoTime();
+        // Only read pixels back when someone is listening, glReadPixels stalls the pipeline.
+        final boolean readback = !mPixelConsumers.isEmpty();
+
+        latchFrames(frameTimeNanos, pendingFrames);
+
+        final BaseDrawer source = getSourceDrawer();
+        if (source == null) {
+            // Its program is still loading; the latched frame is drawn when it arrives.
+            return;
+        }
+        mWindowSurface.makeCurrent();
+        GLES20.glViewport(0, 0, mSurfaceWidth, mSurfaceHeight);
+
+        // Results of the GPU timers from a few frames ago.
+        mGpuTimer.collect();
+
+        // Hand out the reads queued one or two frames ago that are already complete.
+        if (mAsyncPixelReader != null && mAsyncPixelReader.hasPending()) {
+            mAsyncPixelReader.collect(mPixelReaderCallback);
+        }
+
+        if (!mIsSinglePass) {
+            // Two-pass mode: the rotated frame is rendered into the framebuffer first, and
+            // that is what consumers receive.
+            setupOffscreenPass();
+            mOffscreenTarget.bind();
+            mGpuTimer.begin(OFFSCREEN_STAGE);
+            mOffscreenDrawer.draw(null, mSurfaceWidth, mSurfaceHeight);
+            mGpuTimer.end();
+            if (readback) {
+                readPixels(mSurfaceWidth, mSurfaceHeight, mClock.getFrameTimeNs());
+            }
             GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+            GLES20.glViewport(0, 0, mSurfaceWidth, mSurfaceHeight);
+        } else if (mOffscreenTarget != null) {
+            mRenderTargetPool.release(mOffscreenTarget);
+            mOffscreenTarget = null;
+        }
+
+        GLES20.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+
+        mSurfaceTexture.getTransformMatrix(source.getMatrix());
+        final int tier = mIsEffectEnabled ? mQualityGovernor.getTier() : QualityGovernor.TIER_FULL;
+        mEffectGraph.setSourceScale(QualityGovernor.getScale(tier));
+        if (mEffectDrawer != null) {
+            mEffectDrawer.setCheapNoise(QualityGovernor.isCheapNoise(tier));
+        }
+        mEffectGraph.setSource(source);
+        mEffectGraph.draw(mClock.getPositionMs());
+
+        if (mIsSinglePass && readback) {
+            // Single-pass mode: read the composed frame from the window before it is swapped.
+            readPixels(mSurfaceWidth, mSurfaceHeight, mClock.getFrameTimeNs());
+        }
+
+        // Aim for the vsync after the one this frame was started on.
+        final long presentNs = frameTimeNanos + mFrameScheduler.getVsyncPeriodNs();
+        mWindowSurface.setPresentationTime(presentNs);
+        mWindowSurface.swapBuffers();
+        mRenderTargetPool.trim();
+
+        final long swappedNs = System.nanoTime();
+        if (pendingFrames > 0) {
+            mDecodeToPresentNs.record(presentNs - mFrameAvailableNs);
+            mCoalescedFrames.record(pendingFrames - 1);
+            mDroppedFrames.record(mFrameScheduler.getLastDroppedFrameCount());
+        }
+        if (swappedNs > presentNs) {
+            mLateFrameNs.record(swappedNs - presentNs);
+        }
+        if (pendingFrames > 0 && mIsEffectEnabled) {
+            mQualityGovernor.onFrame(swappedNs, swappedNs > presentNs
+                    || mFrameScheduler.getLastDroppedFrameCount() > 0);
+        }
+
+        if (mFirstFrameLatencyNs == 0) {
+            mFirstFrameLatencyNs = System.nanoTime() - mSurfaceCreatedNs;
+            if (Tracer.ENABLED) Tracer.instant(TRACE_FIRST_FRAME, mFirstFrameLatencyNs);
+        }
+
+        mDrawCpuNs.record(swappedNs - startNs);
+        mFrameTimer.record(System.nanoTime() - startNs, readback);
+    }
+
+    private void latchFrames(long frameTimeNanos, int pendingFrames) {
+        // Each call latches the next queued buffer; skip ahead to the newest one.
+        for (int i = 0; i < pendingFrames; i++) {
+            mSurfaceTexture.updateTexImage();
+            mHasLatchedFrame = true;
+        }
+        if (pendingFrames > 0) {
+            // updateTexImage() binds the external texture behind the tracker's back.
+            mGlState.invalidateTextures();
+            final long timestampNs = mSurfaceTexture.getTimestamp();
+            mClock.onFrameLatched(timestampNs != 0 ? timestampNs : frameTimeNanos);
+        }
+    }
 
-            if (mIsEffectEnabled) {
-                mSurfaceTexture.getTransformMatrix(mEffectDrawer.getMatrix());
-                mEffectDrawer.draw(mRGBABuffer, mSurfaceWidth, mSurfaceHeight, mMediaPlayer.getCurrentPosition());
-            } else {
-                mSurfaceTexture.getTransformMatrix(mDirectDrawer.getMatrix());
-                mDirectDrawer.draw(mRGBABuffer, mSurfaceWidth, mSurfaceHeight, mMediaPlayer.getCurrentPosition());
+    /**
+     * Reads the bound framebuffer for the pixel consumers, through the asynchronous reader if
+     * there is one.
+     */
+    private void readPixels(int width, int height, long timestampNs) {
+        if (mAsyncPixelReader != null) {
+            mAsyncPixelReader.readPixels(width, height, timestampNs);
+        } else {
+            final int size = width * height * 4;
+            if (mReadbackLease == null || mReadbackLease.getCapacity() != size) {
+                if (mReadbackLease != null) {
+                    mReadbackLease.release();
+                }
+                mReadbackLease = mPixelBufferPool.acquire(size);
             }
+            final ByteBuffer pixels = mReadbackLease.getBuffer();
+            GLES20.glReadPixels(0, 0, width, height, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE,
+                    pixels);
+            dispatchPixels(pixels, width, height, timestampNs);
+        }
+    }
+
+    private AsyncPixelReader.Callback mPixelReaderCallback = new AsyncPixelReader.Callback() {
+        @Override
+        public void onPixelsRead(ByteBuffer pixels, int width, int height, long timestampNs) {
+            dispatchPixels(pixels, width, height, timestampNs);
+        }
+    };
 
-            mWindowSurface.swapBuffers();
+    private void dispatchPixels(ByteBuffer buffer, int width, int height, long timestampNs) {
+        for (PixelConsumer consumer : mPixelConsumers) {
+            buffer.rewind();
+            consumer.onPixelsAvailable(buffer, width, height, timestampNs);
         }
     }
 
@@ -311,37 +1105,123 @@ public class VideoRenderer implements MediaPlayer.OnVideoSizeChangedListener,
             final AssetFileDescriptor afd = mContext.getResources().getAssets().openFd("vid.mp4");
             mMediaPlayer.setDataSource(afd.getFileDescriptor(),afd.getStartOffset(),afd.getLength());
 
-            Surface surface = new Surface(mSurfaceTexture);
-            mMediaPlayer.setSurface(surface);
-            surface.release();
-
+            // The output surface is attached once the SurfaceTexture exists.
             mMediaPlayer.prepareAsync();
         } catch (IOException e){
             LogUtils.e(e.getMessage());
         }
     }
 
+    private void attachPlayerSurface() {
+        if (mMediaPlayer != null && mSurfaceTexture != null) {
+            Surface surface = new Surface(mSurfaceTexture);
+            mMediaPlayer.setSurface(surface);
+            surface.release();
+        }
+    }
+
     private void releaseGl() {
         mIsDestroy = true;
-        synchronized (sLock) {
+        final RenderThread renderThread = mRenderThread;
+        if (renderThread == null) {
+            return;
+        }
 
-            if (mEffectDrawer != null) {
-                mEffectDrawer.destroy();
-            }
+        // Loader tasks see mIsDestroy and stop; anything they already handed over is dropped
+        // by onDrawerLoaded().
+        if (mLoaderThread != null) {
+            mLoaderThread.quitAndJoin();
+            mLoaderThread = null;
+        }
 
-            if (mDirectDrawer != null) {
-                mDirectDrawer.destroy();
+        renderThread.runAndWait(new Runnable() {
+            @Override
+            public void run() {
+                mFrameScheduler.stop();
+                releaseGlInternal();
             }
+        });
+        renderThread.quitAndJoin();
+        mRenderThread = null;
+        mFrameScheduler = null;
+    }
 
-            if (mWindowSurface != null) {
-                mWindowSurface.release();
-                mWindowSurface = null;
-            }
+    private void releaseGlInternal() {
+        if (mEffectDrawer != null) {
+            mEffectDrawer.destroy();
+            mEffectDrawer = null;
+        }
+
+        if (mDirectDrawer != null) {
+            mDirectDrawer.destroy();
+            mDirectDrawer = null;
+        }
+
+        if (mUpscaleDrawer != null) {
+            mUpscaleDrawer.destroy();
+            mUpscaleDrawer = null;
+        }
 
-            //GlUtil.checkGlError("releaseGl done");
+        if (mMaskCache != null) {
+            mMaskCache.release();
+            mMaskCache = null;
+        }
+
+        if (mGrainPool != null) {
+            mGrainPool.release();
+            mGrainPool = null;
+        }
+
+        mIsPipelineReady = false;
+        mDeferredCommands.clear();
+        mHasLatchedFrame = false;
+
+        if (mAsyncPixelReader != null) {
+            mAsyncPixelReader.release();
+            mAsyncPixelReader = null;
+        }
+        if (mReadbackLease != null) {
+            mReadbackLease.release();
+            mReadbackLease = null;
+        }
 
-            mEglCore.release();
+        if (mEffectGraph != null) {
+            mEffectGraph.release();
+            mEffectGraph = null;
         }
+
+        if (mGpuTimer != null) {
+            mGpuTimer.release();
+            mGpuTimer = null;
+        }
+
+        // The offscreen program goes away with the context.
+        if (mOffscreenDrawer != null) {
+            mOffscreenDrawer.release();
+            mOffscreenDrawer = null;
+        }
+
+        if (mRenderTargetPool != null) {
+            if (mOffscreenTarget != null) {
+                mRenderTargetPool.release(mOffscreenTarget);
+                mOffscreenTarget = null;
+            }
+            mRenderTargetPool.clear();
+            mRenderTargetPool = null;
+        }
+
+        if (mWindowSurface != null) {
+            mWindowSurface.release();
+            mWindowSurface = null;
+        }
+        if (mSuspendSurface != null) {
+            mSuspendSurface.release();
+            mSuspendSurface = null;
+        }
+
+        //GlUtil.checkGlError("releaseGl done");
+
+        mEglCore.release();
     }
 
     private void releasePlayer() {
@@ -350,73 +1230,14 @@ public class VideoRenderer implements MediaPlayer.OnVideoSizeChangedListener,
             mMediaPlayer.release();
             mMediaPlayer = null;
             mIsPrepared = false;
+            mClock.reset();
         }
     }
 
-    private void setupFramebuffer(int width, int height) {
-        int[] values = new int[1];
-
-        // Create a texture object and bind it.  This will be the color buffer.
-        GLES20.glGenTextures(1, values, 0);
-        GlUtil.checkGlError("glGenTextures");
-        mOffscreenTextureID = values[0];
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mOffscreenTextureID);
-        GlUtil.checkGlError("glBindTexture " + mOffscreenTextureID);
-
-        // Create texture storage.
-        GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, width, height, 0,
-                GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
-
-        // Set parameters.  We're probably using non-power-of-two dimensions, so
-        // some values may not be available for use.
-        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
-                GLES20.GL_NEAREST);
-        GLES20.glTexParameterf(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER,
-                GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S,
-                GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T,
-                GLES20.GL_CLAMP_TO_EDGE);
-        GlUtil.checkGlError("glTexParameter");
-
-        // Create framebuffer object and bind it.
-        GLES20.glGenFramebuffers(1, values, 0);
-        mFramebuffer = values[0];    // expected > 0
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFramebuffer);
-        GlUtil.checkGlError("glBindFramebuffer " + mFramebuffer);
-
-        // Create a depth buffer and bind it.
-        GLES20.glGenRenderbuffers(1, values, 0);
-        GlUtil.checkGlError("glGenRenderbuffers");
-        int depthBuffer1 = values[0];
-        GLES20.glBindRenderbuffer(GLES20.GL_RENDERBUFFER, depthBuffer1);
-        GlUtil.checkGlError("glBindRenderbuffer " + depthBuffer1);
-
-        // Allocate storage for the depth buffer.
-        GLES20.glRenderbufferStorage(GLES20.GL_RENDERBUFFER, GLES20.GL_DEPTH_COMPONENT16, width, height);
-        GlUtil.checkGlError("glRenderbufferStorage");
-
-        // Attach the depth buffer and the texture (color buffer) to the framebuffer object.
-        GLES20.glFramebufferRenderbuffer(GLES20.GL_FRAMEBUFFER, GLES20.GL_DEPTH_ATTACHMENT,
-                GLES20.GL_RENDERBUFFER, depthBuffer1);
-        GlUtil.checkGlError("glFramebufferRenderbuffer");
-        GLES20.glFramebufferTexture2D(GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
-                GLES20.GL_TEXTURE_2D, mOffscreenTextureID, 0);
-        GlUtil.checkGlError("glFramebufferTexture2D");
-
-        // See if GLES is happy with all this.
-        int status = GLES20.glCheckFramebufferStatus(GLES20.GL_FRAMEBUFFER);
-        if (status != GLES20.GL_FRAMEBUFFER_COMPLETE) {
-            throw new RuntimeException("Framebuffer not complete, status=" + status);
-        }
-
-        // Switch back to the default framebuffer.
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-    }
-
     @Override
     public void onSeekComplete(MediaPlayer mediaPlayer) {
         if (mIsPrepared) {
+            mClock.anchor(mediaPlayer.getCurrentPosition());
             mMediaPlayer.start();
         }
     }
@@ -0,0 +1,77 @@
+#extension GL_OES_EGL_image_external : require
+
+precision highp float;
+
+uniform vec2 ImageSize;
+uniform vec2 TexelSize;
+uniform vec4 Colour;
+uniform samplerExternalOES sTexture;
+
+uniform float NoiseValue;
+uniform float ScratchValue;
+uniform float RandomValue;
+
+// Grain, one of:
+// - a pre-rendered grain frame from GrainPool, GrainScale 1.0, GrainSkew and GrainOffset 0.0;
+// - snoise() baked by NoiseTextureBaker as a tile of 64x64 cells of its skewed lattice
+//   (repeat), repeated GrainScale times, skewed by GrainSkew and shifted by
+//   GrainOffset * (0.37, 0.73).
+uniform sampler2D NoiseTexture;
+uniform float GrainScale;
+uniform float GrainSkew;
+uniform float GrainOffset;
+
+// Steps 1-3 for the current SepiaValue, baked by ColorLutBuilder: a 256x1 strip indexed by gray.
+uniform sampler2D ColourLut;
+
+// Masks baked by MaskBaker: the vignette for the current vignetting value and the scratch
+// lines for this frame's phase.
+uniform sampler2D VignetteMask;
+uniform sampler2D ScratchMask;
+
+varying vec2 vTexCoord;
+
+// Each of GRAIN, SCRATCHES and VIGNETTE switches a step on; the drawer defines only those
+// whose slider is above 0, a step left out has no effect at 0 anyway.
+
+void main ()
+{
+	// Steps 1-3: grayscale, sepia overlay and sepia lerp, in one lookup
+	vec3 colour = texture2D(sTexture, vTexCoord).xyz;
+	float gray = (colour.x + colour.y + colour.z) / 3.0;
+	vec3 finalColour = texture2D(ColourLut, vec2(gray * (255.0 / 256.0) + 0.5 / 256.0, 0.5)).xyz;
+
+#ifdef GRAIN
+	// Step 4: Add noise
+	// Same frequency as snoise(vTexCoord * (504.0 + RandomValue * 252.0)); the offset moves
+	// the tiles around from frame to frame.
+	vec2 grainCoord = vTexCoord * GrainScale;
+	vec2 noiseCoord = grainCoord + (grainCoord.x + grainCoord.y) * GrainSkew
+			+ GrainOffset * vec2(0.37, 0.73);
+	float noise = (texture2D(NoiseTexture, noiseCoord).x * 2.0 - 1.0) * 0.5;
+	finalColour += noise * NoiseValue;
+#endif
+
+#ifdef SCRATCHES
+	// Step 5: Apply scratches
+	if ( RandomValue < ScratchValue )
+	{
+		// Pick a random spot to show scratches
+		float dist = 1.0 / ScratchValue;
+		float d = distance(vTexCoord, vec2(RandomValue * dist, RandomValue * dist));
+		if ( d < 0.4 )
+		{
+			finalColour.xyz *= texture2D(ScratchMask, vTexCoord).x;
+		}
+	}
+#endif
+
+#ifdef VIGNETTE
+	// Step 6: Apply vignetting
+	finalColour.xyz *= texture2D(VignetteMask, vTexCoord).x;
+#endif
+
+	// Apply colour
+	gl_FragColor.xyz = finalColour;
+	gl_FragColor.w = 1.0;
+}
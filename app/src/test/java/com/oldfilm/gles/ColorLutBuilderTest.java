@@ -0,0 +1,101 @@
+package com.oldfilm.gles;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the colour LUT against steps 1-3 of old_film_fragment_shader.glsl.
+ */
+public class ColorLutBuilderTest {
+
+    private static final float[] SEPIA_VALUES = { 0.0f, 0.25f, 0.5f, 0.73f, 1.0f };
+
+    @Test
+    public void entriesMatchReference() throws Exception {
+        for (float sepiaValue : SEPIA_VALUES) {
+            final byte[] lut = ColorLutBuilder.build(sepiaValue);
+            assertEquals(ColorLutBuilder.SIZE * ColorLutBuilder.CHANNELS, lut.length);
+            for (int i = 0; i < ColorLutBuilder.SIZE; i++) {
+                final double gray = (double) i / (ColorLutBuilder.SIZE - 1);
+                final double[] expected = reference(gray, gray, gray, sepiaValue);
+                for (int c = 0; c < 3; c++) {
+                    assertEquals("entry " + i + " channel " + c + " sepia " + sepiaValue,
+                            expected[c], entry(lut, i, c), 0.5 / 255.0 + 1e-6);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void filteredLookupMatchesReference() throws Exception {
+        final Random random = new Random(42);
+        for (float sepiaValue : SEPIA_VALUES) {
+            final byte[] lut = ColorLutBuilder.build(sepiaValue);
+            for (int n = 0; n < 10000; n++) {
+                final double r = random.nextDouble();
+                final double g = random.nextDouble();
+                final double b = random.nextDouble();
+                final double[] expected = reference(r, g, b, sepiaValue);
+                final double[] actual = lookup(lut, (r + g + b) / 3.0);
+                for (int c = 0; c < 3; c++) {
+                    assertEquals(expected[c], actual[c], 1.5 / 255.0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void zeroSepiaIsGrayscale() throws Exception {
+        final byte[] lut = ColorLutBuilder.build(0.0f);
+        for (int i = 0; i < ColorLutBuilder.SIZE; i++) {
+            for (int c = 0; c < 3; c++) {
+                assertEquals(i, lut[i * ColorLutBuilder.CHANNELS + c] & 0xff);
+            }
+        }
+    }
+
+    @Test
+    public void buildIntoExistingArray() throws Exception {
+        final byte[] lut = new byte[ColorLutBuilder.SIZE * ColorLutBuilder.CHANNELS];
+        ColorLutBuilder.build(0.6f, lut);
+        assertArrayEquals(ColorLutBuilder.build(0.6f), lut);
+    }
+
+    /**
+     * The shader's GL_LINEAR fetch at {@code gray * 255/256 + 0.5/256} in a 256-texel strip.
+     */
+    private static double[] lookup(byte[] lut, double gray) {
+        final double position = gray * (ColorLutBuilder.SIZE - 1);
+        final int i0 = (int) Math.floor(position);
+        final int i1 = Math.min(i0 + 1, ColorLutBuilder.SIZE - 1);
+        final double t = position - i0;
+        final double[] colour = new double[3];
+        for (int c = 0; c < 3; c++) {
+            colour[c] = entry(lut, i0, c) * (1.0 - t) + entry(lut, i1, c) * t;
+        }
+        return colour;
+    }
+
+    private static double entry(byte[] lut, int index, int channel) {
+        return (lut[index * ColorLutBuilder.CHANNELS + channel] & 0xff) / 255.0;
+    }
+
+    /**
+     * Steps 1-3 of the shader: grayscale, Overlay(sepia, grayscale), lerp by SepiaValue.
+     */
+    private static double[] reference(double r, double g, double b, double sepiaValue) {
+        final double[] sepia = { 112.0 / 255.0, 66.0 / 255.0, 20.0 / 255.0 };
+        final double gray = (r + g + b) / 3.0;
+        final double[] colour = new double[3];
+        for (int c = 0; c < 3; c++) {
+            final double overlay = gray <= 0.5
+                    ? 2.0 * sepia[c] * gray
+                    : 1.0 - 2.0 * (1.0 - gray) * (1.0 - sepia[c]);
+            colour[c] = gray + sepiaValue * (overlay - gray);
+        }
+        return colour;
+    }
+}
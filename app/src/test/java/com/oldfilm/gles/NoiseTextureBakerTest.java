@@ -0,0 +1,190 @@
+package com.oldfilm.gles;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the baked noise textures against an independent port of the shader's snoise().
+ */
+public class NoiseTextureBakerTest {
+
+    // Half a quantisation step, plus slack for float vs. double rounding.
+    private static final double TOLERANCE = 0.5 * 2.0 / 255.0 + 1e-3;
+
+    private static final double UNSKEW = 0.211324865405187;
+
+    @Test
+    public void grainMatchesPeriodicReferenceNoise() throws Exception {
+        final byte[] texels = NoiseTextureBaker.getGrain();
+        final int size = NoiseTextureBaker.GRAIN_SIZE;
+        final int period = NoiseTextureBaker.GRAIN_PERIOD;
+        assertEquals(size * size, texels.length);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                // Texel centres are in skewed coordinates.
+                final double qx = (x + 0.5) * period / size;
+                final double qy = (y + 0.5) * period / size;
+                final double t = (qx + qy) * UNSKEW;
+                final double expected = referenceSnoise(qx - t, qy - t, period);
+                final float actual = NoiseTextureBaker.decode(texels[y * size + x]);
+                assertEquals("texel (" + x + ", " + y + ")", expected, actual, TOLERANCE);
+            }
+        }
+    }
+
+    @Test
+    public void periodicNoiseRepeatsAlongSkewedAxes() throws Exception {
+        final int period = NoiseTextureBaker.GRAIN_PERIOD;
+        final Random random = new Random(7);
+        for (int n = 0; n < 1000; n++) {
+            final double qx = random.nextDouble() * period;
+            final double qy = random.nextDouble() * period;
+            final double noise = periodicAt(qx, qy, period);
+            assertEquals(noise, periodicAt(qx + period, qy, period), 1e-9);
+            assertEquals(noise, periodicAt(qx, qy + period, period), 1e-9);
+            assertEquals(noise, periodicAt(qx - 3 * period, qy + 2 * period, period), 1e-9);
+
+            final float t = (float) ((qx + qy) * UNSKEW);
+            final float shifted = (float) ((qx + period + qy) * UNSKEW);
+            assertEquals(NoiseTextureBaker.snoise((float) qx - t, (float) qy - t, period),
+                    NoiseTextureBaker.snoise((float) (qx + period) - shifted,
+                            (float) qy - shifted, period), 1e-3);
+        }
+    }
+
+    @Test
+    public void periodicNoiseMatchesSnoiseInsideFirstTile() throws Exception {
+        final int period = NoiseTextureBaker.GRAIN_PERIOD;
+        final Random random = new Random(11);
+        for (int n = 0; n < 1000; n++) {
+            // Cells whose corners all lie below the period.
+            final float qx = random.nextFloat() * (period - 1);
+            final float qy = random.nextFloat() * (period - 1);
+            final float t = (qx + qy) * (float) UNSKEW;
+            assertEquals(NoiseTextureBaker.snoise(qx - t, qy - t),
+                    NoiseTextureBaker.snoise(qx - t, qy - t, period), 1e-6f);
+        }
+    }
+
+    private static double periodicAt(double qx, double qy, int period) {
+        final double t = (qx + qy) * UNSKEW;
+        return referenceSnoise(qx - t, qy - t, period);
+    }
+
+    @Test
+    public void turbulenceMatchesReferenceNoise() throws Exception {
+        assertBakedMatchesReference(NoiseTextureBaker.getTurbulence(),
+                NoiseTextureBaker.TURBULENCE_SIZE,
+                NoiseTextureBaker.TURBULENCE_SCALE / NoiseTextureBaker.TURBULENCE_SIZE);
+    }
+
+    @Test
+    public void snoiseMatchesReference() throws Exception {
+        assertEquals(0.0f, NoiseTextureBaker.snoise(0.0f, 0.0f), 1e-6f);
+        for (int i = 0; i < 1000; i++) {
+            final float x = i * 0.173f - 50.0f;
+            final float y = i * 0.291f - 80.0f;
+            final float noise = NoiseTextureBaker.snoise(x, y);
+            assertTrue(noise >= -1.0f && noise <= 1.0f);
+            assertEquals(referenceSnoise(x, y), noise, 1e-3);
+        }
+    }
+
+    @Test
+    public void encodeDecodeRoundTrips() throws Exception {
+        for (int i = 0; i < 256; i++) {
+            final byte texel = (byte) i;
+            assertEquals(texel, NoiseTextureBaker.encode(NoiseTextureBaker.decode(texel)));
+        }
+        assertEquals((byte) 0, NoiseTextureBaker.encode(-2.0f));
+        assertEquals((byte) 255, NoiseTextureBaker.encode(2.0f));
+    }
+
+    private static void assertBakedMatchesReference(byte[] texels, int size, double unitsPerTexel) {
+        assertEquals(size * size, texels.length);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                final double expected = referenceSnoise((x + 0.5) * unitsPerTexel,
+                        (y + 0.5) * unitsPerTexel);
+                final float actual = NoiseTextureBaker.decode(texels[y * size + x]);
+                assertEquals("texel (" + x + ", " + y + ")", expected, actual, TOLERANCE);
+            }
+        }
+    }
+
+    private static double referenceSnoise(double vx, double vy) {
+        return referenceSnoise(vx, vy, 0);
+    }
+
+    /**
+     * snoise() from old_film_fragment_shader.glsl, vector by vector, in double precision.  With
+     * a period, the lattice corners are wrapped to it before they are permuted.
+     */
+    private static double referenceSnoise(double vx, double vy, int period) {
+        final double[] c = { 0.211324865405187, 0.366025403784439,
+                -0.577350269189626, 0.024390243902439 };
+
+        // First corner
+        final double dot1 = (vx + vy) * c[1];
+        double[] i = { Math.floor(vx + dot1), Math.floor(vy + dot1) };
+        final double dot2 = (i[0] + i[1]) * c[0];
+        final double[] x0 = { vx - i[0] + dot2, vy - i[1] + dot2 };
+
+        // Other corners
+        final double[] i1 = x0[0] > x0[1] ? new double[] { 1.0, 0.0 } : new double[] { 0.0, 1.0 };
+        final double[] x12 = { x0[0] + c[0] - i1[0], x0[1] + c[0] - i1[1],
+                x0[0] + c[2], x0[1] + c[2] };
+
+        // Permutations
+        final double[] p = new double[3];
+        final double[] iy = { 0.0, i1[1], 1.0 };
+        final double[] ix = { 0.0, i1[0], 1.0 };
+        if (period > 0) {
+            for (int k = 0; k < 3; k++) {
+                p[k] = permute(permute(wrap(i[1] + iy[k], period)) + wrap(i[0] + ix[k], period));
+            }
+        } else {
+            i = new double[] { mod289(i[0]), mod289(i[1]) };
+            for (int k = 0; k < 3; k++) {
+                p[k] = permute(permute(i[1] + iy[k]) + i[0] + ix[k]);
+            }
+        }
+
+        final double[][] corners = { { x0[0], x0[1] }, { x12[0], x12[1] }, { x12[2], x12[3] } };
+        double result = 0.0;
+        for (int k = 0; k < 3; k++) {
+            final double[] v = corners[k];
+            double m = Math.max(0.5 - (v[0] * v[0] + v[1] * v[1]), 0.0);
+            m = m * m;
+            m = m * m;
+
+            final double x = 2.0 * fract(p[k] * c[3]) - 1.0;
+            final double h = Math.abs(x) - 0.5;
+            final double ox = Math.floor(x + 0.5);
+            final double a0 = x - ox;
+
+            m *= 1.79284291400159 - 0.85373472095314 * (a0 * a0 + h * h);
+            result += m * (a0 * v[0] + h * v[1]);
+        }
+        return 130.0 * result;
+    }
+
+    private static double wrap(double x, int period) {
+        return x - Math.floor(x / period) * period;
+    }
+
+    private static double mod289(double x) {
+        return x - Math.floor(x * (1.0 / 289.0)) * 289.0;
+    }
+
+    private static double permute(double x) {
+        return mod289(((x * 34.0) + 1.0) * x);
+    }
+
+    private static double fract(double x) {
+        return x - Math.floor(x);
+    }
+}
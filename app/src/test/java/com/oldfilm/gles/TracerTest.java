@@ -0,0 +1,104 @@
+package com.oldfilm.gles;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exports the trace ring while several threads record into it, and checks that no exported
+ * event mixes fields from two events.
+ */
+public class TracerTest {
+
+    private static final int WRITERS = 4;
+    private static final int EXPORTS = 200;
+    // Each writer's values are its index times this, plus a count.
+    private static final long VALUE_STRIDE = 1000000000L;
+
+    private static final Pattern EVENT = Pattern.compile(
+            "\\{\"name\":\"tracer-test-(\\d+)\",\"ph\":\"(.)\",\"ts\":[0-9.]+,\"pid\":0,"
+                    + "\"tid\":(\\d+)(?:,\"s\":\"t\")?(?:,\"args\":\\{\"value\":(\\d+)\\})?\\}");
+
+    @Test
+    public void exportDuringRecordingIsConsistent() throws Exception {
+        final int[] names = new int[WRITERS];
+        for (int i = 0; i < WRITERS; i++) {
+            names[i] = Tracer.register("tracer-test-" + i);
+        }
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch started = new CountDownLatch(WRITERS);
+        final Thread[] writers = new Thread[WRITERS];
+        final long[] threadIds = new long[WRITERS];
+        for (int i = 0; i < WRITERS; i++) {
+            final int writer = i;
+            writers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    final int name = names[writer];
+                    long count = 0;
+                    started.countDown();
+                    while (running.get()) {
+                        // Alternate phases too, so a torn phase shows.
+                        if ((count & 1) == 0) {
+                            Tracer.instant(name, writer * VALUE_STRIDE + count);
+                        } else {
+                            Tracer.counter(name, writer * VALUE_STRIDE + count);
+                        }
+                        count++;
+                    }
+                }
+            });
+            writers[i].start();
+            threadIds[i] = writers[i].getId();
+        }
+        started.await();
+
+        int checked = 0;
+        try {
+            for (int n = 0; n < EXPORTS; n++) {
+                final StringWriter out = new StringWriter();
+                Tracer.exportChromeJson(out, 0);
+                final Matcher matcher = EVENT.matcher(out.toString());
+                while (matcher.find()) {
+                    final int writer = Integer.parseInt(matcher.group(1));
+                    final String phase = matcher.group(2);
+                    final long thread = Long.parseLong(matcher.group(3));
+                    final long value = Long.parseLong(matcher.group(4));
+                    final long count = value - writer * VALUE_STRIDE;
+
+                    assertEquals("thread of " + matcher.group(), threadIds[writer], thread);
+                    assertTrue("value of " + matcher.group(), count >= 0 && count < VALUE_STRIDE);
+                    assertEquals("phase of " + matcher.group(), (count & 1) == 0 ? "i" : "C", phase);
+                    checked++;
+                }
+            }
+        } finally {
+            running.set(false);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        }
+        assertTrue(checked > 0);
+    }
+
+    @Test
+    public void exportIsWellFormedWhenIdle() throws Exception {
+        final int name = Tracer.register("tracer-test-idle");
+        Tracer.begin(name);
+        Tracer.end(name);
+        final StringWriter out = new StringWriter();
+        Tracer.exportChromeJson(out, 0);
+        final String json = out.toString();
+        assertTrue(json.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+        assertTrue(json.endsWith("\n]}\n"));
+        assertTrue(json.contains("{\"name\":\"tracer-test-idle\",\"ph\":\"B\""));
+        assertTrue(json.contains("{\"name\":\"tracer-test-idle\",\"ph\":\"E\""));
+    }
+}
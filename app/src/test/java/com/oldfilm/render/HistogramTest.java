@@ -0,0 +1,154 @@
+package com.oldfilm.render;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the histogram's log-linear buckets and the percentiles estimated from them.
+ */
+public class HistogramTest {
+
+    private static final int LAST_BUCKET =
+            (Histogram.MAX_EXPONENT - Histogram.SUB_BUCKET_BITS + 2) * Histogram.SUB_BUCKETS - 1;
+
+    @Test
+    public void smallValuesAreExact() throws Exception {
+        for (int value = 0; value < Histogram.SUB_BUCKETS; value++) {
+            assertEquals(value, Histogram.bucketOf(value));
+            assertEquals(value, Histogram.lowerBoundOf(value));
+        }
+    }
+
+    @Test
+    public void powersOfTwoStartBuckets() throws Exception {
+        int previous = Histogram.bucketOf(Histogram.SUB_BUCKETS - 1);
+        for (int exponent = Histogram.SUB_BUCKET_BITS; exponent <= Histogram.MAX_EXPONENT; exponent++) {
+            final long power = 1L << exponent;
+            final int bucket = Histogram.bucketOf(power);
+            assertEquals("2^" + exponent, previous + 1, bucket);
+            assertEquals("2^" + exponent, power, Histogram.lowerBoundOf(bucket));
+            assertEquals("2^" + exponent, bucket - 1, Histogram.bucketOf(power - 1));
+            assertEquals("2^" + exponent, bucket + Histogram.SUB_BUCKETS - 1,
+                    Histogram.bucketOf(2 * power - 1));
+            previous = Histogram.bucketOf(2 * power - 1);
+        }
+    }
+
+    @Test
+    public void valuesBeyondMaxExponentShareLastBucket() throws Exception {
+        final long maxTracked = (1L << (Histogram.MAX_EXPONENT + 1)) - 1;
+        assertEquals(LAST_BUCKET, Histogram.bucketOf(maxTracked));
+        assertEquals(LAST_BUCKET, Histogram.bucketOf(maxTracked + 1));
+        assertEquals(LAST_BUCKET, Histogram.bucketOf(1L << 50));
+        assertEquals(LAST_BUCKET, Histogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void lowerBoundIsWithinAnEighth() throws Exception {
+        final Random random = new Random(42);
+        for (int n = 0; n < 100000; n++) {
+            final long value = random.nextLong() >>> (64 - 1 - Histogram.MAX_EXPONENT
+                    + random.nextInt(Histogram.MAX_EXPONENT));
+            checkRoundTrip(value);
+        }
+        for (long value = 0; value < 5000; value++) {
+            checkRoundTrip(value);
+        }
+    }
+
+    private static void checkRoundTrip(long value) {
+        final int bucket = Histogram.bucketOf(value);
+        final long lower = Histogram.lowerBoundOf(bucket);
+        assertTrue(value + " above " + lower, lower <= value);
+        assertTrue(value + " within 12.5% of " + lower, (value - lower) * 8 <= lower);
+        if (bucket < LAST_BUCKET) {
+            assertTrue(value + " below the next bucket", Histogram.lowerBoundOf(bucket + 1) > value);
+        }
+    }
+
+    @Test
+    public void negativeValuesRecordAsZero() throws Exception {
+        final Histogram histogram = new Histogram("test");
+        histogram.record(-5);
+        final Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1, snapshot.getCount());
+        assertEquals(0, snapshot.getSum());
+        assertEquals(0, snapshot.getPercentile(50));
+    }
+
+    @Test
+    public void emptyPercentileIsZero() throws Exception {
+        final Histogram.Snapshot snapshot = new Histogram("test").snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentile(50));
+        assertEquals(0, snapshot.getMean());
+    }
+
+    @Test
+    public void smallValuePercentilesAreExact() throws Exception {
+        final Histogram histogram = new Histogram("test");
+        for (int value = 0; value < Histogram.SUB_BUCKETS; value++) {
+            histogram.record(value);
+        }
+        final Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(0, snapshot.getPercentile(0));
+        assertEquals(3, snapshot.getPercentile(50));
+        assertEquals(7, snapshot.getPercentile(100));
+        // Out of range percentiles are clamped.
+        assertEquals(0, snapshot.getPercentile(-10));
+        assertEquals(7, snapshot.getPercentile(150));
+    }
+
+    @Test
+    public void uniformPercentilesWithinAnEighth() throws Exception {
+        final Histogram histogram = new Histogram("test");
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+        final Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500500, snapshot.getSum());
+        assertEquals(500, snapshot.getMean());
+        assertEquals(1000, snapshot.getMax());
+        for (int percentile = 1; percentile <= 100; percentile++) {
+            assertWithinAnEighth("p" + percentile, percentile * 10,
+                    snapshot.getPercentile(percentile));
+        }
+    }
+
+    @Test
+    public void bimodalPercentiles() throws Exception {
+        final Histogram histogram = new Histogram("test");
+        for (int i = 0; i < 900; i++) {
+            histogram.record(100);
+        }
+        for (int i = 0; i < 100; i++) {
+            histogram.record(10000);
+        }
+        final Histogram.Snapshot snapshot = histogram.snapshot();
+        assertWithinAnEighth("p50", 100, snapshot.getPercentile(50));
+        assertWithinAnEighth("p90", 100, snapshot.getPercentile(90));
+        assertWithinAnEighth("p91", 10000, snapshot.getPercentile(91));
+        assertWithinAnEighth("p99", 10000, snapshot.getPercentile(99));
+        assertEquals(10000, snapshot.getMax());
+        assertEquals(1090, snapshot.getMean());
+    }
+
+    @Test
+    public void percentileIsCappedAtMax() throws Exception {
+        final Histogram histogram = new Histogram("test");
+        final long huge = 1L << 45;
+        histogram.record(huge);
+        final long percentile = histogram.snapshot().getPercentile(50);
+        assertTrue(percentile <= huge);
+        assertTrue(percentile >= Histogram.lowerBoundOf(LAST_BUCKET));
+    }
+
+    private static void assertWithinAnEighth(String message, long expected, long actual) {
+        assertTrue(message + ": " + actual + " vs " + expected,
+                Math.abs(actual - expected) * 8 <= expected);
+    }
+}
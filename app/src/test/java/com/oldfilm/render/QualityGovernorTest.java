@@ -0,0 +1,216 @@
+package com.oldfilm.render;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the quality governor's hysteresis with synthetic frame sequences.
+ */
+public class QualityGovernorTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long HOLD = QualityGovernor.UPGRADE_HOLD_NS;
+
+    private static class RecordingListener implements QualityGovernor.Listener {
+        final List<int[]> mChanges = new ArrayList<>();
+
+        @Override
+        public void onTierChanged(int oldTier, int newTier) {
+            mChanges.add(new int[] { oldTier, newTier });
+        }
+    }
+
+    /**
+     * Reports one full window at a point in time, the first lateFrames of it late.
+     */
+    private static void window(QualityGovernor governor, long nowNs, int lateFrames) {
+        for (int i = 0; i < QualityGovernor.WINDOW_FRAMES; i++) {
+            governor.onFrame(nowNs, i < lateFrames);
+        }
+    }
+
+    private static void drop(QualityGovernor governor, long nowNs) {
+        window(governor, nowNs, QualityGovernor.DOWNGRADE_LATE_FRAMES);
+    }
+
+    @Test
+    public void dropsOneTierPerBadWindow() throws Exception {
+        final QualityGovernor governor = new QualityGovernor();
+        final RecordingListener listener = new RecordingListener();
+        governor.setListener(listener);
+
+        window(governor, 0, QualityGovernor.DOWNGRADE_LATE_FRAMES - 1);
+        assertEquals(QualityGovernor.TIER_FULL, governor.getTier());
+        assertTrue(listener.mChanges.isEmpty());
+
+        drop(governor, SECOND);
+        assertEquals(QualityGovernor.TIER_THREE_QUARTER, governor.getTier());
+        drop(governor, 2 * SECOND);
+        assertEquals(QualityGovernor.TIER_HALF, governor.getTier());
+        drop(governor, 3 * SECOND);
+        assertEquals(QualityGovernor.TIER_HALF_CHEAP_NOISE, governor.getTier());
+        drop(governor, 4 * SECOND);
+        assertEquals(QualityGovernor.TIER_HALF_CHEAP_NOISE, governor.getTier());
+
+        assertEquals(3, listener.mChanges.size());
+        assertArrayEquals(new int[] { QualityGovernor.TIER_FULL, QualityGovernor.TIER_THREE_QUARTER },
+                listener.mChanges.get(0));
+        assertArrayEquals(new int[] { QualityGovernor.TIER_HALF, QualityGovernor.TIER_HALF_CHEAP_NOISE },
+                listener.mChanges.get(2));
+    }
+
+    @Test
+    public void judgesOnlyWholeWindows() throws Exception {
+        final QualityGovernor governor = new QualityGovernor();
+
+        // A run of late frames split over two windows doesn't add up.
+        final int boundary = QualityGovernor.WINDOW_FRAMES;
+        final int split = QualityGovernor.DOWNGRADE_LATE_FRAMES - 1;
+        for (int i = 0; i < 2 * QualityGovernor.WINDOW_FRAMES; i++) {
+            governor.onFrame(0, i >= boundary - split && i < boundary + split);
+        }
+        assertEquals(QualityGovernor.TIER_FULL, governor.getTier());
+
+        // Nothing is decided before the window is full.
+        for (int i = 0; i < QualityGovernor.WINDOW_FRAMES - 1; i++) {
+            governor.onFrame(0, true);
+        }
+        assertEquals(QualityGovernor.TIER_FULL, governor.getTier());
+        governor.onFrame(0, true);
+        assertEquals(QualityGovernor.TIER_THREE_QUARTER, governor.getTier());
+    }
+
+    @Test
+    public void resetForgetsPartialWindow() throws Exception {
+        final QualityGovernor governor = new QualityGovernor();
+        for (int i = 0; i < QualityGovernor.WINDOW_FRAMES - 1; i++) {
+            governor.onFrame(0, true);
+        }
+        governor.reset();
+        window(governor, 0, 1);
+        assertEquals(QualityGovernor.TIER_FULL, governor.getTier());
+    }
+
+    @Test
+    public void raisesAfterCleanHold() throws Exception {
+        final QualityGovernor governor = new QualityGovernor();
+        drop(governor, 0);
+
+        // The first clean window starts the hold.
+        final long cleanSince = SECOND;
+        window(governor, cleanSince, 0);
+        window(governor, cleanSince + HOLD - 1, 0);
+        assertEquals(QualityGovernor.TIER_THREE_QUARTER, governor.getTier());
+        window(governor, cleanSince + HOLD, 0);
+        assertEquals(QualityGovernor.TIER_FULL, governor.getTier());
+    }
+
+    @Test
+    public void anyLateFrameRestartsHold() throws Exception {
+        final QualityGovernor governor = new QualityGovernor();
+        drop(governor, 0);
+
+        window(governor, SECOND, 0);
+        window(governor, 2 * SECOND, 1);
+        assertEquals(QualityGovernor.TIER_THREE_QUARTER, governor.getTier());
+        window(governor, 3 * SECOND, 0);
+        window(governor, SECOND + HOLD, 0);
+        assertEquals(QualityGovernor.TIER_THREE_QUARTER, governor.getTier());
+        window(governor, 3 * SECOND + HOLD, 0);
+        assertEquals(QualityGovernor.TIER_FULL, governor.getTier());
+    }
+
+    @Test
+    public void holdDoublesWhenRaiseFailsUpToCap() throws Exception {
+        final QualityGovernor governor = new QualityGovernor();
+        long now = 0;
+        drop(governor, now);
+
+        long hold = HOLD;
+        final long[] expectedHolds = new long[] {
+                HOLD, 2 * HOLD, 4 * HOLD, 8 * HOLD, 16 * HOLD, 16 * HOLD };
+        assertEquals(QualityGovernor.MAX_UPGRADE_HOLD_NS, 16 * HOLD);
+        for (long expectedHold : expectedHolds) {
+            assertEquals(expectedHold, hold);
+
+            now += SECOND;
+            window(governor, now, 0);
+            window(governor, now + hold - 1, 0);
+            assertEquals("hold " + hold, QualityGovernor.TIER_THREE_QUARTER, governor.getTier());
+            now += hold;
+            window(governor, now, 0);
+            assertEquals("hold " + hold, QualityGovernor.TIER_FULL, governor.getTier());
+
+            // Dropped again within the hold.
+            now += SECOND;
+            drop(governor, now);
+            assertEquals(QualityGovernor.TIER_THREE_QUARTER, governor.getTier());
+            hold = Math.min(QualityGovernor.MAX_UPGRADE_HOLD_NS, hold * 2);
+        }
+    }
+
+    @Test
+    public void holdResetsOnceRaiseHolds() throws Exception {
+        final QualityGovernor governor = new QualityGovernor();
+
+        // A failed raise doubles the hold.
+        drop(governor, 0);
+        window(governor, SECOND, 0);
+        window(governor, SECOND + HOLD, 0);
+        assertEquals(QualityGovernor.TIER_FULL, governor.getTier());
+        long now = 2 * SECOND + HOLD;
+        drop(governor, now);
+
+        // Raised again after the doubled hold, and kept for that long.
+        now += SECOND;
+        window(governor, now, 0);
+        window(governor, now + HOLD, 0);
+        assertEquals(QualityGovernor.TIER_THREE_QUARTER, governor.getTier());
+        now += 2 * HOLD;
+        window(governor, now, 0);
+        assertEquals(QualityGovernor.TIER_FULL, governor.getTier());
+        now += 2 * HOLD;
+        window(governor, now, 0);
+
+        // Back to the base hold: a later drop is followed by a raise after HOLD.
+        now += SECOND;
+        drop(governor, now);
+        now += SECOND;
+        window(governor, now, 0);
+        window(governor, now + HOLD, 0);
+        assertEquals(QualityGovernor.TIER_FULL, governor.getTier());
+    }
+
+    @Test
+    public void disabledStaysAtFull() throws Exception {
+        final QualityGovernor governor = new QualityGovernor();
+        final RecordingListener listener = new RecordingListener();
+        governor.setListener(listener);
+        drop(governor, 0);
+        drop(governor, SECOND);
+        assertEquals(QualityGovernor.TIER_HALF, governor.getTier());
+
+        governor.setEnabled(false);
+        governor.onFrame(2 * SECOND, true);
+        assertEquals(QualityGovernor.TIER_FULL, governor.getTier());
+        assertArrayEquals(new int[] { QualityGovernor.TIER_HALF, QualityGovernor.TIER_FULL },
+                listener.mChanges.get(listener.mChanges.size() - 1));
+
+        drop(governor, 3 * SECOND);
+        assertEquals(QualityGovernor.TIER_FULL, governor.getTier());
+
+        // Enabled again, it starts from an empty window.
+        governor.setEnabled(true);
+        for (int i = 0; i < QualityGovernor.WINDOW_FRAMES - 1; i++) {
+            governor.onFrame(4 * SECOND, true);
+        }
+        assertEquals(QualityGovernor.TIER_FULL, governor.getTier());
+        governor.onFrame(4 * SECOND, true);
+        assertEquals(QualityGovernor.TIER_THREE_QUARTER, governor.getTier());
+    }
+}